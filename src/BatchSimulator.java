@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Plays many seeded games without a window, spread over every core, and gathers statistics about them;
+ * for trying out changes to the scoring rules or the fall delay before anybody plays them.
+ *
+ * The games are played by a MovePolicy. Between steps, the policy is given as many actions as a player
+ * could make in the game's current fall delay (at one action every millisPerAction), so faster falling
+ * blocks leave it less time to place them, as they would a person.
+ *
+ * The same seed always plays the same games, no matter how many threads they are played on.
+ * Call BatchSimulator.main() with the amount of games, the difficulty, the initial level, the seed, the policy
+ * ("random", "search" or "lookahead") and the width and height of the game area, all optional,
+ * to play games and print their statistics.
+ *
+ * @author Robert Campbell
+ */
+public class BatchSimulator {
+	// Games which go on for this many steps are stopped, so that a policy which never loses still finishes
+	public static final long DEFAULT_MAX_STEPS = 1000000;
+	// How long a player takes to make one action, in milliseconds
+	public static final int DEFAULT_MILLIS_PER_ACTION = 50;
+
+	private int difficulty;
+	private int initialLevel;
+	private int width = Game.HORIZONTAL_TILES;
+	private int height = Game.VERTICAL_TILES;
+	private MovePolicy.Factory policies;
+	private long maxSteps = DEFAULT_MAX_STEPS;
+	private int millisPerAction = DEFAULT_MILLIS_PER_ACTION;
+	private ForkJoinPool pool;
+
+	/**
+	 * Constructor; creates a simulator which plays games on the given difficulty and initial level with the given policies,
+	 * using every core (see WorkerPool)
+	 */
+	public BatchSimulator(int difficulty, int initialLevel, MovePolicy.Factory policies){
+		this(difficulty, initialLevel, policies, WorkerPool.getInstance());
+	}
+
+	/**
+	 * Constructor; creates a simulator which plays games on the given difficulty and initial level with the given policies,
+	 * on the threads of the given pool
+	 */
+	public BatchSimulator(int difficulty, int initialLevel, MovePolicy.Factory policies, ForkJoinPool pool){
+		this.difficulty = difficulty;
+		this.initialLevel = initialLevel;
+		this.policies = policies;
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the amount of steps after which a game is stopped, even if it hasn't ended
+	 */
+	public void setMaxSteps(long maxSteps){
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Sets the amount of tiles across and down the game area of each game; e.g. a very tall area
+	 * makes a game go on for much longer, with a much taller stack
+	 */
+	public void setBoardSize(int width, int height){
+		if(width < Game.MIN_HORIZONTAL_TILES || width > Board.MAX_WIDTH){
+			throw new IllegalArgumentException("Game area width must be between " + Game.MIN_HORIZONTAL_TILES + " and " + Board.MAX_WIDTH + ", was " + width + ".");
+		}
+		if(height < Game.MIN_VERTICAL_TILES){
+			throw new IllegalArgumentException("Game area height must be at least " + Game.MIN_VERTICAL_TILES + ", was " + height + ".");
+		}
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Sets how many milliseconds the policy takes to make each action
+	 */
+	public void setMillisPerAction(int millisPerAction){
+		if(millisPerAction < 1){
+			throw new IllegalArgumentException("Milliseconds per action must be at least 1, was " + millisPerAction + ".");
+		}
+		this.millisPerAction = millisPerAction;
+	}
+
+	/**
+	 * Plays the given amount of games, whose seeds all come from the given seed, and waits for them all to finish
+	 */
+	public Result run(int games, long seed){
+		Result result = new Result(games);
+		SeededRandom seeder = new SeededRandom(seed);
+		for(int i = 0; i < games; i++){
+			result.seeds[i] = seeder.nextLong();
+		}
+
+		long start = System.nanoTime();
+		// Split the games into a few pieces per thread, so that threads which finish early can take over the rest
+		int gamesPerTask = Math.max(1, games / (pool.getParallelism() * 8));
+		pool.invoke(new PlayTask(result, 0, games, gamesPerTask));
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Plays a range of the games, splitting it in half for other threads while it is large
+	 */
+	private class PlayTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Result result;
+		private int from;
+		private int to;
+		private int gamesPerTask;
+
+		public PlayTask(Result result, int from, int to, int gamesPerTask){
+			this.result = result;
+			this.from = from;
+			this.to = to;
+			this.gamesPerTask = gamesPerTask;
+		}
+
+		protected void compute(){
+			if(to - from > gamesPerTask){
+				int middle = (from + to) >>> 1;
+				invokeAll(new PlayTask(result, from, middle, gamesPerTask), new PlayTask(result, middle, to, gamesPerTask));
+				return;
+			}
+			for(int i = from; i < to; i++){
+				play(result, i);
+			}
+		}
+	}
+
+	/**
+	 * Plays the given game of the result to the end (or to the most steps), and stores how it went
+	 */
+	private void play(Result result, int index){
+		Game game = new Game(difficulty, initialLevel, result.seeds[index], width, height);
+		// The policy's seed is different from the game's, so that it can't predict the blocks
+		MovePolicy policy = policies.create(~result.seeds[index]);
+		while(!game.isOver() && game.getStepCount() < maxSteps){
+			game.step();
+			int actions = Math.max(game.getFallDelay() / millisPerAction, 1);
+			for(int i = 0; i < actions && !game.isOver(); i++){
+				int action = policy.nextAction(game);
+				if(action == MovePolicy.NO_ACTION){ break; }
+				game.apply(action);
+			}
+		}
+		// Each game is only written by one thread, and invoke() makes the writes visible once it returns
+		result.scores[index] = game.getScore();
+		result.lines[index] = game.getLinesCleared();
+		result.levels[index] = game.getLevel();
+		result.blocks[index] = game.getBlockCount();
+		result.toppedOut[index] = game.isOver();
+	}
+
+	/**
+	 * How every game of a batch went, with one entry in each array for each game
+	 */
+	public static class Result {
+		private long[] seeds;
+		private double[] scores;
+		private int[] lines;
+		private int[] levels;
+		private int[] blocks;
+		private boolean[] toppedOut;
+		private long elapsedNanos;
+
+		private Result(int games){
+			seeds = new long[games];
+			scores = new double[games];
+			lines = new int[games];
+			levels = new int[games];
+			blocks = new int[games];
+			toppedOut = new boolean[games];
+		}
+
+		/**
+		 * Returns the amount of games played
+		 */
+		public int getGameCount(){
+			return seeds.length;
+		}
+
+		/**
+		 * Returns the seed the given game was played with, so that it can be played again
+		 */
+		public long getSeed(int game){
+			return seeds[game];
+		}
+
+		/**
+		 * Returns the final score of the given game
+		 */
+		public double getScore(int game){
+			return scores[game];
+		}
+
+		/**
+		 * Returns the amount of lines cleared in the given game
+		 */
+		public int getLinesCleared(int game){
+			return lines[game];
+		}
+
+		/**
+		 * Returns the level the given game ended on
+		 */
+		public int getLevel(int game){
+			return levels[game];
+		}
+
+		/**
+		 * Returns whether the given game ended by the blocks reaching the top, rather than running out of steps
+		 */
+		public boolean isToppedOut(int game){
+			return toppedOut[game];
+		}
+
+		/**
+		 * Returns how long the batch took to play, in nanoseconds
+		 */
+		public long getElapsedNanos(){
+			return elapsedNanos;
+		}
+
+		/**
+		 * Returns the amount of blocks placed per second, over every thread
+		 */
+		public double getPlacementsPerSecond(){
+			long placements = 0;
+			for(int i = 0; i < blocks.length; i++){ placements += blocks[i]; }
+			return placements * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * Returns the score which the given percentage of games scored at most
+		 * @param percentile The percentage, from 0 to 100
+		 */
+		public double getScorePercentile(double percentile){
+			if(percentile < 0 || percentile > 100){
+				throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile + ".");
+			}
+			if(scores.length == 0){
+				return Double.NaN;
+			}
+			double[] sorted = scores.clone();
+			Arrays.sort(sorted);
+			int index = Math.max((int)Math.ceil(percentile / 100 * sorted.length) - 1, 0);
+			return sorted[index];
+		}
+
+		/**
+		 * Returns the mean of the final scores
+		 */
+		public double getMeanScore(){
+			double total = 0;
+			for(int i = 0; i < scores.length; i++){ total += scores[i]; }
+			return total / scores.length;
+		}
+
+		/**
+		 * Returns the mean amount of lines cleared in each game
+		 */
+		public double getMeanLines(){
+			double total = 0;
+			for(int i = 0; i < lines.length; i++){ total += lines[i]; }
+			return total / lines.length;
+		}
+
+		/**
+		 * Returns the mean level at which games topped out, or NaN if none of them did
+		 */
+		public double getMeanTopOutLevel(){
+			double total = 0;
+			int count = 0;
+			for(int i = 0; i < levels.length; i++){
+				if(toppedOut[i]){
+					total += levels[i];
+					count++;
+				}
+			}
+			return count == 0 ? Double.NaN : total / count;
+		}
+
+		/**
+		 * Prints the statistics of the batch
+		 */
+		public void print(){
+			System.out.println(String.format("%d games in %.2f s (%.0f placements/s)", seeds.length, elapsedNanos / 1e9, getPlacementsPerSecond()));
+			System.out.println(String.format("Score: mean %.0f, min %.0f, p25 %.0f, median %.0f, p75 %.0f, p99 %.0f, max %.0f",
+					getMeanScore(), getScorePercentile(0), getScorePercentile(25), getScorePercentile(50), getScorePercentile(75), getScorePercentile(99), getScorePercentile(100)));
+			System.out.println(String.format("Lines per game: mean %.2f", getMeanLines()));
+			System.out.println(String.format("Top-out level: mean %.1f", getMeanTopOutLevel()));
+		}
+	}
+
+	public static void main(String[] args){
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int difficulty = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int initialLevel = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : SeededRandom.newSeed();
+		String policy = args.length > 4 ? args[4] : "random";
+		int width = args.length > 5 ? Integer.parseInt(args[5]) : Game.HORIZONTAL_TILES;
+		int height = args.length > 6 ? Integer.parseInt(args[6]) : Game.VERTICAL_TILES;
+
+		System.out.println("Playing " + games + " " + policy + " " + width + "x" + height + " games on difficulty " + difficulty + " from level " + initialLevel + " with seed " + seed);
+		MovePolicy.Factory policies = RandomMovePolicy.factory();
+		if(policy.equals("search")){
+			policies = SearchMovePolicy.factory();
+		}
+		else if(policy.equals("lookahead")){
+			policies = SearchMovePolicy.factory(BeamSearch.DEFAULT_LOOKAHEAD, BeamSearch.DEFAULT_BEAM_WIDTH);
+		}
+		BatchSimulator simulator = new BatchSimulator(difficulty, initialLevel, policies);
+		simulator.setBoardSize(width, height);
+		simulator.run(games, seed).print();
+	}
+}
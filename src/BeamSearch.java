@@ -0,0 +1,486 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Plans where to put the current block by looking ahead at the blocks which come after it.
+ *
+ * The current block is placed everywhere it can go (see PlacementSearch), then the next block is
+ * placed everywhere on each of the boards that leaves, and so on for each block looked ahead at.
+ * After each block only the best few boards (the beam) are kept, so the work grows with the beam width
+ * rather than exponentially. A board's score is its PlacementSearch score plus the lines cleared on the way
+ * to it, and the placement of the current block which leads to the best board at the end is chosen.
+ *
+ * The boards of each level are placed on in parallel, on the threads of a ForkJoinPool. If the deadline
+ * passes while a level is being searched, that level is thrown away and the best placement from the level
+ * before it is used, so the search can always answer in time; the current block is always searched fully.
+ * Boards and working space are kept between searches, so only the fork-join tasks are allocated.
+ *
+ * The same board is often reached by placing the same blocks in a different order. With a
+ * TranspositionTable, every board is only scored once, even when it is reached on different threads.
+ *
+ * @author Robert Campbell
+ */
+public class BeamSearch {
+	public static final int DEFAULT_LOOKAHEAD = 2;
+	public static final int DEFAULT_BEAM_WIDTH = 8;
+
+	private int lookahead;
+	private int beamWidth;
+	private ForkJoinPool pool;
+
+	// A placement search for each board in the beam, so that they can be searched at the same time
+	private PlacementSearch[] searches;
+	// The shapes being placed, the current block's first
+	private int[] shapes;
+
+	// The board being searched, as the only parent of the first level
+	private Board[] root = new Board[1];
+	// The boards being placed on at the current level (the root, or the parents), and those they lead to
+	private Board[] searching;
+	// The boards of the current level after the first, and those they lead to; swapped after each level
+	private Board[] parents;
+	private Board[] children;
+	private int parentCount;
+	// The score of the lines cleared on the way to each board, and the placement of the current block which led to it
+	private double[] parentRewards;
+	private double[] childRewards;
+	private int[] parentRoots;
+	private int[] childRoots;
+
+	// The best placements of the current level; a min-heap of candidates (parent * MAX_PLACEMENTS + placement), worst first
+	private int[] beam;
+	private double[] beamScores;
+	private int beamSize;
+
+	// The placements of the current block, which every board leads back to
+	private int[] rootRotations = new int[PlacementSearch.MAX_PLACEMENTS];
+	private int[] rootXs = new int[PlacementSearch.MAX_PLACEMENTS];
+	private int[] rootYs = new int[PlacementSearch.MAX_PLACEMENTS];
+
+	// The result of the last search
+	private boolean isFound;
+	private int bestRotation;
+	private int bestX;
+	private int bestY;
+	private double bestScore;
+	private int depthSearched;
+	private long placementsScored;
+	private long tableHits;
+	private long elapsedNanos;
+
+	/**
+	 * Constructor; creates a search which looks ahead at the given amount of blocks after the current one,
+	 * keeping the given amount of boards at each level, on the threads of the shared pool (see WorkerPool)
+	 */
+	public BeamSearch(int lookahead, int beamWidth){
+		this(lookahead, beamWidth, WorkerPool.getInstance());
+	}
+
+	/**
+	 * Constructor; creates a search which looks ahead at the given amount of blocks after the current one,
+	 * keeping the given amount of boards at each level, on the threads of the given pool
+	 */
+	public BeamSearch(int lookahead, int beamWidth, ForkJoinPool pool){
+		if(lookahead < 0){
+			throw new IllegalArgumentException("Lookahead cannot be negative, was " + lookahead + ".");
+		}
+		if(beamWidth < 1){
+			throw new IllegalArgumentException("Beam width must be at least 1, was " + beamWidth + ".");
+		}
+		this.lookahead = lookahead;
+		this.beamWidth = beamWidth;
+		this.pool = pool;
+		searches = new PlacementSearch[beamWidth];
+		for(int i = 0; i < beamWidth; i++){
+			searches[i] = new PlacementSearch();
+		}
+		shapes = new int[lookahead + 1];
+		parents = new Board[beamWidth];
+		children = new Board[beamWidth];
+		parentRewards = new double[beamWidth];
+		childRewards = new double[beamWidth];
+		parentRoots = new int[beamWidth];
+		childRoots = new int[beamWidth];
+		beam = new int[beamWidth];
+		beamScores = new double[beamWidth];
+	}
+
+	/**
+	 * Sets the weights of each part of a board's score (see PlacementSearch.setWeights)
+	 */
+	public void setWeights(double linesWeight, double heightWeight, double holesWeight, double bumpinessWeight){
+		for(int i = 0; i < beamWidth; i++){
+			searches[i].setWeights(linesWeight, heightWeight, holesWeight, bumpinessWeight);
+		}
+	}
+
+	/**
+	 * Sets the table to cache board scores in, which may be shared with other searches with the same weights; null stops caching
+	 */
+	public void setTranspositionTable(TranspositionTable table){
+		for(int i = 0; i < beamWidth; i++){
+			searches[i].setTranspositionTable(table);
+		}
+	}
+
+	/**
+	 * Finds the best placement for a block of the given shape on the given board, looking ahead at the
+	 * blocks coming next in the given queue (as far as it can be peeked at).
+	 * @param deadline The System.nanoTime after which to stop looking further ahead
+	 * @return Whether any placement was found
+	 */
+	public boolean search(Board board, int shape, PieceQueue nextBlocks, long deadline){
+		return search(board, shapes, getShapes(shape, nextBlocks), true, deadline);
+	}
+
+	/**
+	 * Finds the best placement for a block of the given shape on the given board, looking ahead at the
+	 * blocks coming next in the given queue (as far as it can be peeked at) however long it takes.
+	 * @return Whether any placement was found
+	 */
+	public boolean search(Board board, int shape, PieceQueue nextBlocks){
+		return search(board, shapes, getShapes(shape, nextBlocks), false, 0);
+	}
+
+	/**
+	 * Finds the best placement for a block of the first of the given shapes on the given board,
+	 * looking ahead at the rest of them however long it takes.
+	 * @param count The amount of shapes to place, no more than one more than the lookahead
+	 * @return Whether any placement was found
+	 */
+	public boolean search(Board board, int[] shapes, int count){
+		return search(board, shapes, count, false, 0);
+	}
+
+	/**
+	 * Puts the given shape and the ones after it in the queue into shapes, as far as the search looks ahead
+	 * @return The amount of shapes
+	 */
+	private int getShapes(int shape, PieceQueue nextBlocks){
+		shapes[0] = shape;
+		int count = 1 + Math.min(lookahead, nextBlocks.getPreviewDepth() + 1);
+		for(int i = 1; i < count; i++){
+			shapes[i] = nextBlocks.peek(i-1);
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the best placement for a block of the first of the given shapes on the given board,
+	 * looking ahead at the rest of them.
+	 * @param count The amount of shapes to place, no more than one more than the lookahead
+	 * @param deadline The System.nanoTime after which to stop looking further ahead
+	 * @return Whether any placement was found
+	 */
+	public boolean search(Board board, int[] shapes, int count, long deadline){
+		return search(board, shapes, count, true, deadline);
+	}
+
+	/**
+	 * Finds the best placement for a block of the first of the given shapes on the given board,
+	 * looking ahead at the rest of them until the given deadline, if it has one.
+	 * The current block is always searched in full, whatever the deadline.
+	 */
+	private boolean search(Board board, int[] shapes, int count, boolean hasDeadline, long deadline){
+		if(count < 1 || count > lookahead + 1){
+			throw new IllegalArgumentException("Can only place between 1 and " + (lookahead + 1) + " shapes, not " + count + ".");
+		}
+		long start = System.nanoTime();
+		ensureBoards(board);
+		isFound = false;
+		bestScore = Double.NEGATIVE_INFINITY;
+		depthSearched = 0;
+		placementsScored = 0;
+		tableHits = 0;
+
+		// The first level has just the board being searched, which is read but never changed
+		root[0] = board;
+		parentCount = 1;
+		parentRewards[0] = 0;
+		for(int depth = 0; depth < count; depth++){
+			searching = depth == 0 ? root : parents;
+			pool.invoke(new ExpandTask(shapes[depth], depth, 0, parentCount, hasDeadline && depth > 0, deadline));
+			for(int p = 0; p < parentCount; p++){
+				placementsScored += searches[p].getPlacementsScored();
+				tableHits += searches[p].getTableHits();
+			}
+			// A level which ran out of time wasn't searched fairly, so the level before it is used instead
+			if(hasDeadline && depth > 0 && System.nanoTime() - deadline > 0){
+				break;
+			}
+
+			selectBeam();
+			if(beamSize == 0){
+				// Every placement loses; the last level is as good as it gets
+				break;
+			}
+			int best = 0;
+			for(int i = 1; i < beamSize; i++){
+				if(beamScores[i] > beamScores[best]){ best = i; }
+			}
+			isFound = true;
+			bestScore = beamScores[best];
+			depthSearched = depth + 1;
+			// Keep the placement of the current block now, as the next level searches over the first level's placements
+			if(depth == 0){
+				int placement = beam[best] % PlacementSearch.MAX_PLACEMENTS;
+				bestRotation = searches[0].getPlacementRotation(placement);
+				bestX = searches[0].getPlacementX(placement);
+				bestY = searches[0].getPlacementY(placement);
+			}
+			else{
+				int placement = parentRoots[beam[best] / PlacementSearch.MAX_PLACEMENTS];
+				bestRotation = rootRotations[placement];
+				bestX = rootXs[placement];
+				bestY = rootYs[placement];
+			}
+
+			if(depth + 1 < count){
+				pool.invoke(new BuildTask(shapes[depth], 0, beamSize, depth == 0));
+				swapLevels();
+			}
+		}
+		// The board being searched isn't ours to keep
+		root[0] = null;
+		elapsedNanos = System.nanoTime() - start;
+		return isFound;
+	}
+
+	/**
+	 * Makes sure there are boards of the same size as the given one for each place in the beam
+	 */
+	private void ensureBoards(Board board){
+		for(int i = 0; i < beamWidth; i++){
+			if(children[i] == null || children[i].getWidth() != board.getWidth() || children[i].getHeight() != board.getHeight()){
+				children[i] = new Board(board.getWidth(), board.getHeight());
+			}
+			if(parents[i] == null || parents[i].getWidth() != board.getWidth() || parents[i].getHeight() != board.getHeight()){
+				parents[i] = new Board(board.getWidth(), board.getHeight());
+			}
+		}
+	}
+
+	/**
+	 * Keeps the best beamWidth placements of every parent board, from each parent's search
+	 */
+	private void selectBeam(){
+		beamSize = 0;
+		for(int p = 0; p < parentCount; p++){
+			PlacementSearch search = searches[p];
+			for(int i = 0; i < search.getPlacementsScored(); i++){
+				double score = parentRewards[p] + search.getPlacementScore(i);
+				int candidate = p * PlacementSearch.MAX_PLACEMENTS + i;
+				if(beamSize < beamWidth){
+					beam[beamSize] = candidate;
+					beamScores[beamSize] = score;
+					siftUp(beamSize++);
+				}
+				else if(score > beamScores[0]){
+					beam[0] = candidate;
+					beamScores[0] = score;
+					siftDown(0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the given entry of the beam's heap up until its parent is no worse than it
+	 */
+	private void siftUp(int i){
+		while(i > 0){
+			int parent = (i-1) / 2;
+			if(beamScores[parent] <= beamScores[i]){ return; }
+			swapBeam(i, parent);
+			i = parent;
+		}
+	}
+
+	/**
+	 * Moves the given entry of the beam's heap down until its children are no better than it
+	 */
+	private void siftDown(int i){
+		while(true){
+			int worst = i;
+			int left = 2*i + 1;
+			if(left < beamSize && beamScores[left] < beamScores[worst]){ worst = left; }
+			if(left+1 < beamSize && beamScores[left+1] < beamScores[worst]){ worst = left+1; }
+			if(worst == i){ return; }
+			swapBeam(i, worst);
+			i = worst;
+		}
+	}
+
+	/**
+	 * Swaps two entries of the beam
+	 */
+	private void swapBeam(int a, int b){
+		int candidate = beam[a];
+		beam[a] = beam[b];
+		beam[b] = candidate;
+		double score = beamScores[a];
+		beamScores[a] = beamScores[b];
+		beamScores[b] = score;
+	}
+
+	/**
+	 * Makes the boards which the beam leads to into the parents of the next level
+	 */
+	private void swapLevels(){
+		Board[] boards = parents;
+		parents = children;
+		children = boards;
+		double[] rewards = parentRewards;
+		parentRewards = childRewards;
+		childRewards = rewards;
+		int[] roots = parentRoots;
+		parentRoots = childRoots;
+		childRoots = roots;
+		parentCount = beamSize;
+	}
+
+	/**
+	 * Searches every placement of a shape on a range of the parent boards, splitting the range between threads
+	 */
+	private class ExpandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int shape;
+		private int depth;
+		private int from;
+		private int to;
+		private boolean hasDeadline;
+		private long deadline;
+
+		public ExpandTask(int shape, int depth, int from, int to, boolean hasDeadline, long deadline){
+			this.shape = shape;
+			this.depth = depth;
+			this.from = from;
+			this.to = to;
+			this.hasDeadline = hasDeadline;
+			this.deadline = deadline;
+		}
+
+		protected void compute(){
+			if(to - from > 1){
+				int middle = (from + to) >>> 1;
+				invokeAll(new ExpandTask(shape, depth, from, middle, hasDeadline, deadline), new ExpandTask(shape, depth, middle, to, hasDeadline, deadline));
+				return;
+			}
+			searches[from].search(searching[from], shape, depth, hasDeadline, deadline);
+		}
+	}
+
+	/**
+	 * Makes the boards left by a range of the placements in the beam, splitting the range between threads
+	 */
+	private class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int shape;
+		private int from;
+		private int to;
+		private boolean isRoot;
+
+		public BuildTask(int shape, int from, int to, boolean isRoot){
+			this.shape = shape;
+			this.from = from;
+			this.to = to;
+			this.isRoot = isRoot;
+		}
+
+		protected void compute(){
+			if(to - from > 1){
+				int middle = (from + to) >>> 1;
+				invokeAll(new BuildTask(shape, from, middle, isRoot), new BuildTask(shape, middle, to, isRoot));
+				return;
+			}
+			int parent = beam[from] / PlacementSearch.MAX_PLACEMENTS;
+			int placement = beam[from] % PlacementSearch.MAX_PLACEMENTS;
+			PlacementSearch search = searches[parent];
+			int rotation = search.getPlacementRotation(placement);
+			int x = search.getPlacementX(placement);
+			int y = search.getPlacementY(placement);
+
+			Board child = children[from];
+			child.copyFrom(searching[parent]);
+			child.place(shape, rotation, x, y);
+			child.clearFullRows(y + BlockRotations.MIN_Y[shape][rotation], y + BlockRotations.MAX_Y[shape][rotation]);
+			childRewards[from] = parentRewards[parent] + search.getLinesWeight() * search.getPlacementLines(placement);
+
+			// Every board remembers which placement of the current block it came from
+			if(isRoot){
+				rootRotations[placement] = rotation;
+				rootXs[placement] = x;
+				rootYs[placement] = y;
+				childRoots[from] = placement;
+			}
+			else{
+				childRoots[from] = parentRoots[parent];
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the last search found any placement
+	 */
+	public boolean isFound(){
+		return isFound;
+	}
+
+	/**
+	 * Returns the rotation of the current block's best placement found by the last search
+	 */
+	public int getBestRotation(){
+		return bestRotation;
+	}
+
+	/**
+	 * Returns the x position of the origin of the current block's best placement found by the last search
+	 */
+	public int getBestX(){
+		return bestX;
+	}
+
+	/**
+	 * Returns the y position of the origin of the current block's best placement found by the last search
+	 */
+	public int getBestY(){
+		return bestY;
+	}
+
+	/**
+	 * Returns the score of the best board found at the deepest level of the last search
+	 */
+	public double getBestScore(){
+		return bestScore;
+	}
+
+	/**
+	 * Returns the amount of blocks (including the current one) which the last search looked at in full
+	 */
+	public int getDepthSearched(){
+		return depthSearched;
+	}
+
+	/**
+	 * Returns the amount of placements scored by the last search, over every thread
+	 */
+	public long getPlacementsScored(){
+		return placementsScored;
+	}
+
+	/**
+	 * Returns the amount of placements scored by the last search whose scores were found in the transposition table
+	 */
+	public long getTableHits(){
+		return tableHits;
+	}
+
+	/**
+	 * Returns the amount of placements scored per second by the last search, over every thread
+	 */
+	public double getPlacementsPerSecond(){
+		return elapsedNanos == 0 ? 0 : placementsScored * 1e9 / elapsedNanos;
+	}
+}
@@ -0,0 +1,432 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Times the parts of Game and Block which are run most often, on an empty,
+ * a half-full and a nearly topped out game area. Call Benchmarks.main() to run them all,
+ * or pass the names of the benchmarks to run as arguments.
+ *
+ * Each benchmark is warmed up and then run for a number of fixed length rounds;
+ * the time and the amount of memory allocated per call are printed for each.
+ *
+ * @author Robert Campbell
+ */
+public class Benchmarks {
+	// The amount of rounds to run before and while measuring, and the length of each
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	private static final long ROUND_NANOS = 200000000L;
+
+	// The fixtures which every benchmark is run on
+	private static final String[] FIXTURE_NAMES = { "empty", "half-full", "near-topout" };
+	// The row above which each fixture is empty
+	private static final int[] FIXTURE_STACK_TOPS = { Game.VERTICAL_TILES, Game.VERTICAL_TILES/2, 3 };
+	// Full rows are put at the bottom of the filled fixtures so that line clears are measured too
+	private static final int FULL_ROWS = 2;
+	// The height of the board which the fixtures are put at the bottom of to measure very tall boards
+	private static final int TALL_BOARD_HEIGHT = 50000;
+
+	// Results are written here so that the JIT can't remove the code being timed
+	private static volatile long sink;
+
+	/**
+	 * Something to be timed; a single call to run() is one operation.
+	 */
+	private static abstract class Benchmark {
+		private String name;
+
+		public Benchmark(String name){
+			this.name = name;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Sets the benchmark up on the given fixture; this is not timed
+		 */
+		public abstract void setUp(int fixture);
+
+		/**
+		 * Performs one operation
+		 */
+		public abstract void run();
+	}
+
+	public static void main(String[] args){
+		Benchmark[] benchmarks = createBenchmarks();
+
+		System.out.println(String.format("%-22s %-12s %14s %12s %12s", "Benchmark", "Fixture", "ns/op", "+-", "bytes/op"));
+		for(int i = 0; i < benchmarks.length; i++){
+			if(args.length > 0 && !contains(args, benchmarks[i].getName())){
+				continue;
+			}
+			for(int j = 0; j < FIXTURE_NAMES.length; j++){
+				measure(benchmarks[i], j);
+			}
+		}
+	}
+
+	/**
+	 * Runs the given benchmark on the given fixture and prints the results
+	 */
+	private static void measure(Benchmark benchmark, int fixture){
+		benchmark.setUp(fixture);
+		for(int i = 0; i < WARMUP_ROUNDS; i++){
+			runRound(benchmark);
+		}
+
+		double[] nanosPerOp = new double[MEASURED_ROUNDS];
+		long totalOps = 0;
+		long allocatedBefore = allocatedBytes();
+		for(int i = 0; i < MEASURED_ROUNDS; i++){
+			long start = System.nanoTime();
+			long ops = runRound(benchmark);
+			nanosPerOp[i] = (double)(System.nanoTime() - start) / ops;
+			totalOps += ops;
+		}
+		double bytesPerOp = (double)(allocatedBytes() - allocatedBefore) / totalOps;
+
+		// Find the mean and standard deviation of the rounds
+		double mean = 0;
+		for(int i = 0; i < MEASURED_ROUNDS; i++){ mean += nanosPerOp[i]; }
+		mean /= MEASURED_ROUNDS;
+		double variance = 0;
+		for(int i = 0; i < MEASURED_ROUNDS; i++){ variance += (nanosPerOp[i]-mean) * (nanosPerOp[i]-mean); }
+		double deviation = Math.sqrt(variance / MEASURED_ROUNDS);
+
+		System.out.println(String.format("%-22s %-12s %14.2f %12.2f %12.1f", benchmark.getName(), FIXTURE_NAMES[fixture], mean, deviation, bytesPerOp));
+	}
+
+	/**
+	 * Runs the given benchmark repeatedly for one round, returning the amount of operations completed.
+	 * The clock is only checked every so often, so that reading it doesn't dominate short operations.
+	 */
+	private static long runRound(Benchmark benchmark){
+		long end = System.nanoTime() + ROUND_NANOS;
+		long ops = 0;
+		do{
+			for(int i = 0; i < 1024; i++){
+				benchmark.run();
+			}
+			ops += 1024;
+		} while(System.nanoTime() < end);
+		return ops;
+	}
+
+	/**
+	 * Returns the amount of bytes that the current thread has allocated so far,
+	 * or 0 if the JVM can't measure it
+	 */
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks whether the given array contains the given string
+	 */
+	private static boolean contains(String[] array, String s){
+		for(int i = 0; i < array.length; i++){
+			if(array[i].equals(s)){ return true; }
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a new game with its tiles filled in as the given fixture, and a T block falling just above them
+	 */
+	private static Game createFixture(int fixture){
+		Game game = new Game(1, 1);
+		Board board = game.getBoard();
+		int stackTop = FIXTURE_STACK_TOPS[fixture];
+		// Always fill the same tiles, so that runs can be compared
+		Random random = new Random(fixture);
+		for(int y = stackTop; y < Game.VERTICAL_TILES; y++){
+			// Leave one gap in every row apart from the full ones at the bottom
+			int gap = y >= Game.VERTICAL_TILES - FULL_ROWS ? -1 : random.nextInt(Game.HORIZONTAL_TILES);
+			for(int x = 0; x < Game.HORIZONTAL_TILES; x++){
+				if(x != gap){
+					board.setTileValue(x, y, random.nextInt(Game.BLOCK_COLORS.length) + 1);
+				}
+			}
+		}
+		placeBlock(game, 5, Math.max(stackTop - 3, 0));
+		return game;
+	}
+
+	/**
+	 * Makes a new block of the given shape (an index into Game.BLOCK_X_POSITIONS) in the center of the given row
+	 */
+	private static void placeBlock(Game game, int shape, int row){
+		game.newBlock(shape+1, Game.BLOCK_ORIGIN_X_POSITIONS[shape] + Game.HORIZONTAL_TILES/2, Game.BLOCK_ORIGIN_Y_POSITIONS[shape] + row);
+	}
+
+	/**
+	 * Creates every benchmark
+	 */
+	private static Benchmark[] createBenchmarks(){
+		return new Benchmark[] {
+			new Benchmark("checkForTetris"){
+				private Game game;
+				private Board fixtureBoard;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+					fixtureBoard = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+					fixtureBoard.copyFrom(game.getBoard());
+				}
+				public void run(){
+					// Put the full rows back each time, so that every call clears them
+					game.getBoard().copyFrom(fixtureBoard);
+					game.checkForTetris();
+				}
+			},
+			new Benchmark("tallClearFullRows"){
+				private Board fixtureBoard;
+				private Board board;
+				public void setUp(int fixture){
+					// The fixture's rows at the bottom of a board taller than any game in a window
+					Board fixtureTiles = createFixture(fixture).getBoard();
+					int offset = TALL_BOARD_HEIGHT - Game.VERTICAL_TILES;
+					fixtureBoard = new Board(Game.HORIZONTAL_TILES, TALL_BOARD_HEIGHT);
+					for(int y = fixtureTiles.getStackTop(); y < Game.VERTICAL_TILES; y++){
+						for(int x = 0; x < Game.HORIZONTAL_TILES; x++){
+							fixtureBoard.setTileValue(x, y + offset, fixtureTiles.getTileValue(x, y));
+						}
+					}
+					board = new Board(Game.HORIZONTAL_TILES, TALL_BOARD_HEIGHT);
+				}
+				public void run(){
+					board.copyFrom(fixtureBoard);
+					sink += board.clearFullRows();
+				}
+			},
+			new Benchmark("shiftTilesDown"){
+				private Game game;
+				private Board fixtureBoard;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+					fixtureBoard = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+					fixtureBoard.copyFrom(game.getBoard());
+				}
+				public void run(){
+					// Put the fixture back each time, as every call shifts its bottom row away
+					game.getBoard().copyFrom(fixtureBoard);
+					game.shiftTilesDown(Game.VERTICAL_TILES-1);
+				}
+			},
+			new Benchmark("checkValidFall"){
+				private Game game;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					if(game.checkValidFall(game.getCurrentBlock())){ sink++; }
+				}
+			},
+			new Benchmark("getDropDistance"){
+				private Game game;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					sink += game.getDropDistance();
+				}
+			},
+			new Benchmark("hardDrop"){
+				private Game game;
+				private Board fixtureBoard;
+				private int fixture;
+				public void setUp(int fixture){
+					this.fixture = fixture;
+					game = createFixture(fixture);
+					fixtureBoard = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+					fixtureBoard.copyFrom(game.getBoard());
+				}
+				public void run(){
+					// Put the fixture and its block back each time, so that every call drops the same block
+					game.getBoard().copyFrom(fixtureBoard);
+					placeBlock(game, 5, Math.max(FIXTURE_STACK_TOPS[fixture] - 3, 0));
+					game.hardDrop();
+					sink += game.getBoard().getStackTop();
+				}
+			},
+			new Benchmark("isValidHorizontal"){
+				private Game game;
+				private boolean isRight;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					isRight = !isRight;
+					if(game.isValidHorizontal(isRight)){ sink++; }
+				}
+			},
+			new Benchmark("pieceCanTurn"){
+				private Game game;
+				private boolean isClockwise;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					isClockwise = !isClockwise;
+					if(game.pieceCanTurn(isClockwise)){ sink++; }
+				}
+			},
+			new Benchmark("Block.turn"){
+				private Block block;
+				public void setUp(int fixture){
+					block = createFixture(fixture).getCurrentBlock();
+				}
+				public void run(){
+					block.turn(true);
+				}
+			},
+			new Benchmark("Block.containsPos"){
+				private Block block;
+				private int x;
+				public void setUp(int fixture){
+					block = createFixture(fixture).getCurrentBlock();
+				}
+				public void run(){
+					x = (x+1) % Game.HORIZONTAL_TILES;
+					if(block.containsPos(x, block.getOriginY())){ sink++; }
+				}
+			},
+			new Benchmark("PlacementSearch"){
+				private Game game;
+				private PlacementSearch search = new PlacementSearch();
+				private int shape;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					// Every search scores up to a few dozen placements
+					shape = (shape+1) % Game.BLOCK_X_POSITIONS.length;
+					search.search(game.getBoard(), shape);
+					sink += search.getPlacementsScored();
+				}
+			},
+			new Benchmark("BeamSearch"){
+				private Game game;
+				private BeamSearch search = new BeamSearch(BeamSearch.DEFAULT_LOOKAHEAD, BeamSearch.DEFAULT_BEAM_WIDTH);
+				private int[] shapes = { 0, 2, 5 };
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					search.search(game.getBoard(), shapes, shapes.length);
+					sink += search.getPlacementsScored();
+				}
+			},
+			new Benchmark("BeamSearch+table"){
+				private Game game;
+				private BeamSearch search = new BeamSearch(BeamSearch.DEFAULT_LOOKAHEAD, BeamSearch.DEFAULT_BEAM_WIDTH);
+				private int[] shapes = { 0, 2, 5 };
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+					search.setTranspositionTable(new TranspositionTable(16 << 20));
+				}
+				public void run(){
+					search.search(game.getBoard(), shapes, shapes.length);
+					sink += search.getPlacementsScored();
+				}
+			},
+			new Benchmark("evaluatePlacement"){
+				private Game game;
+				private PlacementSearch search = new PlacementSearch();
+				private int x;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					// Score a vertical I block resting on the top of the stack
+					x = (x+1) % Game.HORIZONTAL_TILES;
+					int y = game.getBoard().getColumnTop(x) - 1 - BlockRotations.MAX_Y[0][1];
+					if(game.getBoard().fits(0, 1, x, y) && y + BlockRotations.MIN_Y[0][1] >= 0){
+						sink += (long)search.evaluate(game.getBoard(), 0, 1, x, y);
+					}
+				}
+			},
+			new Benchmark("copyAndPlace"){
+				private Game game;
+				private Board child = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+				private int x;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+				}
+				public void run(){
+					// Branch from the fixture by copying it, as a search would with a Board
+					x = (x+1) % Game.HORIZONTAL_TILES;
+					int y = game.getBoard().getColumnTop(x) - 1 - BlockRotations.MAX_Y[0][1];
+					child.copyFrom(game.getBoard());
+					if(y + BlockRotations.MIN_Y[0][1] >= 0){
+						child.place(0, 1, x, y);
+					}
+					sink += child.getHash();
+				}
+			},
+			new Benchmark("persistentPlace"){
+				private PersistentBoard board;
+				private int x;
+				public void setUp(int fixture){
+					board = new PersistentBoard(createFixture(fixture).getBoard());
+				}
+				public void run(){
+					// Branch from the fixture, sharing the rows the block isn't in
+					x = (x+1) % Game.HORIZONTAL_TILES;
+					int y = board.getDropY(0, 1, x);
+					if(y + BlockRotations.MIN_Y[0][1] >= 0){
+						sink += board.place(0, 1, x, y).getHash();
+					}
+				}
+			},
+			new Benchmark("writeSnapshot"){
+				private Game game;
+				private java.nio.ByteBuffer buffer;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+					buffer = java.nio.ByteBuffer.allocate(game.getMaxSnapshotSize());
+				}
+				public void run(){
+					buffer.clear();
+					game.writeSnapshot(buffer);
+					sink += buffer.position();
+				}
+			},
+			new Benchmark("readSnapshot"){
+				private Game game;
+				private java.nio.ByteBuffer buffer;
+				public void setUp(int fixture){
+					game = createFixture(fixture);
+					buffer = java.nio.ByteBuffer.allocate(game.getMaxSnapshotSize());
+					game.writeSnapshot(buffer);
+				}
+				public void run(){
+					buffer.flip();
+					game.readSnapshot(buffer);
+					sink += game.getBoard().getStackTop();
+				}
+			},
+			new Benchmark("doBlocks"){
+				private Game game;
+				private int fixture;
+				public void setUp(int fixture){
+					this.fixture = fixture;
+					game = createFixture(fixture);
+				}
+				public void run(){
+					game.step();
+					// Start again once the game has been lost; this is rare enough not to matter
+					if(game.isOver()){
+						game = createFixture(fixture);
+					}
+				}
+			}
+		};
+	}
+}
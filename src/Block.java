@@ -1,4 +1,6 @@
 import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * A collection of tiles that forms a block;
@@ -8,14 +10,19 @@ import java.awt.Color;
  */
 public class Block {
 	private Color color;
-	// All co-ordinates of tiles which this block contains
+	// All co-ordinates of tiles which this block contains; only the first tileCount are used,
+	// so that tiles can be added and removed without making new arrays
 	private int[] xPositions;
 	private int[] yPositions;
+	private int tileCount;
 	// The point around which this block rotates
 	private int originX;
 	private int originY;
 
 	private int blockType;
+	// Which of the shape's rotations in BlockRotations the block is in,
+	// or -1 if its tiles aren't one of the block shapes
+	private int rotation = -1;
 
 	/**
 	 * Constructor; creates a new Block
@@ -29,6 +36,7 @@ public class Block {
 	public Block(int[] x, int[] y, int originX, int originY, int blockType){
 		xPositions = x;
 		yPositions = y;
+		tileCount = x.length;
 		this.originX = originX;
 		this.originY = originY - 2;
 		this.blockType = blockType;
@@ -37,21 +45,131 @@ public class Block {
 		assert xPositions.length == yPositions.length : "Uneven position counts were given on creation of a block.";
 	}
 
+	/**
+	 * Constructor; creates a new Block of one of the block shapes, in its initial rotation
+	 * @param blockType The type of the block; its shape is Game.BLOCK_X_POSITIONS[blockType-1]
+	 * @param originX The center x position of the block
+	 * @param originY The center y position of the block
+	 */
+	public Block(int blockType, int originX, int originY){
+		xPositions = new int[BlockRotations.X_OFFSETS[blockType-1][0].length];
+		yPositions = new int[xPositions.length];
+		reset(blockType, originX, originY);
+	}
+
+	/**
+	 * Turns this block into a new block of one of the block shapes, in its initial rotation,
+	 * reusing its arrays where possible
+	 * @param blockType The type of the block; its shape is Game.BLOCK_X_POSITIONS[blockType-1]
+	 * @param originX The center x position of the block
+	 * @param originY The center y position of the block
+	 */
+	public void reset(int blockType, int originX, int originY){
+		this.originX = originX;
+		this.originY = originY;
+		this.blockType = blockType;
+		this.color = Game.BLOCK_COLORS[blockType-1];
+		this.rotation = 0;
+		tileCount = BlockRotations.X_OFFSETS[blockType-1][0].length;
+		if(xPositions.length < tileCount){
+			xPositions = new int[tileCount];
+			yPositions = new int[tileCount];
+		}
+		setPositionsFromRotation();
+	}
+
+	/**
+	 * Returns the most bytes that writeSnapshot takes up for this block
+	 */
+	public int getMaxSnapshotSize(){
+		return 10 + (rotation == -1 ? 2 + tileCount * 8 : 0);
+	}
+
+	/**
+	 * Writes the block at the buffer's position; blocks of one of the shapes only need their type, rotation and origin,
+	 * and other blocks have each of their tiles written as well
+	 */
+	public void writeSnapshot(ByteBuffer buffer){
+		buffer.put((byte)blockType);
+		buffer.put((byte)rotation);
+		buffer.putInt(originX);
+		buffer.putInt(originY);
+		if(rotation == -1){
+			buffer.putShort((short)tileCount);
+			for(int i = 0; i < tileCount; i++){
+				buffer.putInt(xPositions[i]);
+				buffer.putInt(yPositions[i]);
+			}
+		}
+	}
+
+	/**
+	 * Turns this block into one written by writeSnapshot, from the buffer's position, reusing its arrays where possible
+	 */
+	public void readSnapshot(ByteBuffer buffer){
+		int newBlockType = buffer.get();
+		int newRotation = buffer.get();
+		int newOriginX = buffer.getInt();
+		int newOriginY = buffer.getInt();
+		if(newBlockType < 1 || newBlockType > Game.BLOCK_COLORS.length || newRotation < -1 || newRotation >= BlockRotations.ROTATIONS){
+			throw new IllegalArgumentException("Block snapshot has an unknown type " + newBlockType + " or rotation " + newRotation + ".");
+		}
+		reset(newBlockType, newOriginX, newOriginY);
+		if(newRotation != -1){
+			rotation = newRotation;
+			setPositionsFromRotation();
+			return;
+		}
+
+		rotation = -1;
+		tileCount = buffer.getShort();
+		if(xPositions.length < tileCount){
+			xPositions = new int[tileCount];
+			yPositions = new int[tileCount];
+		}
+		for(int i = 0; i < tileCount; i++){
+			xPositions[i] = buffer.getInt();
+			yPositions[i] = buffer.getInt();
+		}
+	}
+
+	/**
+	 * Sets the tile positions to those of the current rotation around the origin
+	 */
+	private void setPositionsFromRotation(){
+		int[] xOffsets = BlockRotations.X_OFFSETS[blockType-1][rotation];
+		int[] yOffsets = BlockRotations.Y_OFFSETS[blockType-1][rotation];
+		for(int i = 0; i < tileCount; i++){
+			xPositions[i] = originX + xOffsets[i];
+			yPositions[i] = originY + yOffsets[i];
+		}
+	}
+
 	/**
 	 * Shifts each block down one tile
 	 */
 	public void shiftDown(){
-		for(int i = 0; i < yPositions.length; i++){
+		for(int i = 0; i < tileCount; i++){
 			yPositions[i]++;
 		}
 		originY++;
 	}
 
+	/**
+	 * Shifts each block down the given amount of tiles
+	 */
+	public void shiftDown(int rows){
+		for(int i = 0; i < tileCount; i++){
+			yPositions[i] += rows;
+		}
+		originY += rows;
+	}
+
 	/**
 	 * Shifts each block left one tile
 	 */
 	public void shiftLeft(){
-		for(int i = 0; i < xPositions.length; i++){
+		for(int i = 0; i < tileCount; i++){
 			xPositions[i]--;
 		}
 		originX--;
@@ -61,7 +179,7 @@ public class Block {
 	 * Shifts each block right one tile
 	 */
 	public void shiftRight(){
-		for(int i = 0; i < xPositions.length; i++){
+		for(int i = 0; i < tileCount; i++){
 			xPositions[i]++;
 		}
 		originX++;
@@ -72,50 +190,49 @@ public class Block {
 	 * Assumes that the tile position exists on the block
 	 */
 	public void removeTile(int x, int y){
-		// DOES NOT CAUSE BUG
+		// The block is no longer one of the shapes
+		rotation = -1;
 
-		int[] newXPositions = new int[xPositions.length-1];
-		int[] newYPositions = new int[yPositions.length-1];
 		int removePos = -1;
-		for(int i = 0; i < xPositions.length-1; i++){
+		for(int i = 0; i < tileCount; i++){
 			if(xPositions[i] == x && yPositions[i] == y){
 				removePos = i;
 			}
 		}
 		assert removePos != -1 : "Remove position wasn't set!";
-		for(int i = 0; i < newXPositions.length; i++){
-			if(i == removePos){
-				continue;
-			}
-			newXPositions[i] = xPositions[i];
-			newYPositions[i] = yPositions[i];
-		}
+		if(removePos == -1){ return; }
 
-		xPositions = newXPositions.clone();
-		yPositions = newYPositions.clone();
+		// The order of tiles doesn't matter, so the last tile can just be moved into the removed one's place
+		tileCount--;
+		xPositions[removePos] = xPositions[tileCount];
+		yPositions[removePos] = yPositions[tileCount];
 	}
 
 	/**
 	 * Adds the given tile position to the block
 	 */
 	public void addTile(int x, int y){
-		int[] newXPositions = new int[xPositions.length+1];
-		int[] newYPositions = new int[yPositions.length+1];
-		for(int i = 0; i < xPositions.length; i++){
-			newXPositions[i] = xPositions[i];
-			newYPositions[i] = yPositions[i];
+		// The block is no longer one of the shapes
+		rotation = -1;
+
+		// Only make new arrays if there is no room left, and leave room for more tiles when doing so
+		if(tileCount == xPositions.length){
+			xPositions = Arrays.copyOf(xPositions, tileCount*2 + 1);
+			yPositions = Arrays.copyOf(yPositions, tileCount*2 + 1);
 		}
-		newXPositions[newXPositions.length-1] = x;
-		newYPositions[newYPositions.length-1] = y;
-		xPositions = newXPositions.clone();
-		yPositions = newYPositions.clone();
+		xPositions[tileCount] = x;
+		yPositions[tileCount] = y;
+		tileCount++;
 	}
 
 	/**
 	 * Shifts the given tile down by one space
 	 */
 	public void shiftTileDown(int x, int y){
-		for(int i = 0; i < xPositions.length; i++){
+		// The block is no longer one of the shapes
+		rotation = -1;
+
+		for(int i = 0; i < tileCount; i++){
 			if(xPositions[i] == x && yPositions[i] == y){
 				yPositions[i]++;
 			}
@@ -128,6 +245,13 @@ public class Block {
 	public int getBlockType(){
 		return blockType;
 	}
+	/**
+	 * Returns which rotation of its shape (see BlockRotations) the block is in,
+	 * or -1 if its tiles aren't one of the block shapes
+	 */
+	public int getRotation(){
+		return rotation;
+	}
 	/**
 	 * Returns the color of the block
 	 */
@@ -135,13 +259,21 @@ public class Block {
 		return color;
 	}
 	/**
-	 * Returns an array of x positions of tiles that the block contains
+	 * Returns the amount of tiles that the block contains
+	 */
+	public int getTileCount(){
+		return tileCount;
+	}
+	/**
+	 * Returns an array of x positions of tiles that the block contains;
+	 * only the first getTileCount() are used
 	 */
 	public int[] getXPositions(){
 		return xPositions;
 	}
 	/**
-	 * Returns an array of y positions of tiles that the block contains
+	 * Returns an array of y positions of tiles that the block contains;
+	 * only the first getTileCount() are used
 	 */
 	public int[] getYPositions(){
 		return yPositions;
@@ -163,33 +295,49 @@ public class Block {
 	 * Rotates the block in the specified direction
 	 */
 	public void turn(boolean isClockwise){
-		int[] newXPositions = new int[xPositions.length];
-		int[] newYPositions = new int[yPositions.length];
-		for(int i = 0; i < xPositions.length; i++){
+		// Blocks of one of the shapes can just look up their next rotation
+		if(rotation != -1){
+			rotation = BlockRotations.turn(rotation, isClockwise);
+			setPositionsFromRotation();
+			return;
+		}
+
+		// Otherwise, each tile can be turned in place as it only depends on its own position
+		for(int i = 0; i < tileCount; i++){
 			int xDist = xPositions[i] - originX;
 			int yDist = yPositions[i] - originY;
 			if(isClockwise){
 				// To rotate clockwise, the new y position of a tile will be its old x position,
 				// and the new x position of a tile will be the negative of its old y position.
-				newXPositions[i] = originX - yDist;
-				newYPositions[i] = originY + xDist;
+				xPositions[i] = originX - yDist;
+				yPositions[i] = originY + xDist;
 			}
 			else{
 				// To rotate anticlockwise, the new y position of the tile will be the negative of its old x position,
 				// and the new y position of a tile will be its old y position.
-				newXPositions[i] = originX + yDist;
-				newYPositions[i] = originY - xDist;
+				xPositions[i] = originX + yDist;
+				yPositions[i] = originY - xDist;
 			}
 		}
-		xPositions = newXPositions;
-		yPositions = newYPositions;
 	}
 
 	/**
 	 * Checks if this block contains the given position
 	 */
 	public boolean containsPos(int x, int y){
-		for(int i = 0; i < xPositions.length; i++){
+		// Blocks of one of the shapes can just check the mask of the row
+		if(rotation != -1){
+			int shape = blockType-1;
+			int row = y - originY - BlockRotations.MIN_Y[shape][rotation];
+			int column = x - originX - BlockRotations.MIN_X[shape][rotation];
+			long[] masks = BlockRotations.ROW_MASKS[shape][rotation];
+			if(row < 0 || row >= masks.length || column < 0 || column >= Board.MAX_WIDTH){
+				return false;
+			}
+			return ((masks[row] >>> column) & 1) != 0;
+		}
+
+		for(int i = 0; i < tileCount; i++){
 			if(x == xPositions[i] && y == yPositions[i]){
 				return true;
 			}
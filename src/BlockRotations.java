@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * Every rotation of every block shape in Game.BLOCK_X_POSITIONS and Game.BLOCK_Y_POSITIONS,
+ * worked out once so that turning a block or checking whether it can turn is just a lookup.
+ *
+ * Rotation 0 is the shape as it is spawned, and each following rotation is the one
+ * before it turned 90 degrees clockwise around the shape's origin.
+ * All tables are indexed by [shape][rotation], where the shape is the block type decremented.
+ *
+ * @author Robert Campbell
+ */
+public class BlockRotations {
+	public static final int ROTATIONS = 4;
+
+	// The position of each tile relative to the origin; [shape][rotation][tile]
+	public static final int[][][] X_OFFSETS = new int[Game.BLOCK_X_POSITIONS.length][ROTATIONS][];
+	public static final int[][][] Y_OFFSETS = new int[Game.BLOCK_X_POSITIONS.length][ROTATIONS][];
+
+	// The bounds of the tiles relative to the origin; [shape][rotation]
+	public static final int[][] MIN_X = new int[Game.BLOCK_X_POSITIONS.length][ROTATIONS];
+	public static final int[][] MAX_X = new int[Game.BLOCK_X_POSITIONS.length][ROTATIONS];
+	public static final int[][] MIN_Y = new int[Game.BLOCK_X_POSITIONS.length][ROTATIONS];
+	public static final int[][] MAX_Y = new int[Game.BLOCK_X_POSITIONS.length][ROTATIONS];
+
+	// The occupied tiles of each row of the shape, from MIN_Y down, with bit 0 being MIN_X; [shape][rotation][row]
+	public static final long[][][] ROW_MASKS = new long[Game.BLOCK_X_POSITIONS.length][ROTATIONS][];
+	// The lowest tile of each column of the shape relative to the origin, from MIN_X across; [shape][rotation][column]
+	public static final int[][][] COLUMN_BOTTOMS = new int[Game.BLOCK_X_POSITIONS.length][ROTATIONS][];
+
+	static {
+		for(int shape = 0; shape < Game.BLOCK_X_POSITIONS.length; shape++){
+			int tileCount = Game.BLOCK_X_POSITIONS[shape].length;
+			int[] x = new int[tileCount];
+			int[] y = new int[tileCount];
+			// The spawned shape, relative to its origin
+			for(int i = 0; i < tileCount; i++){
+				x[i] = Game.BLOCK_X_POSITIONS[shape][i] - Game.BLOCK_ORIGIN_X_POSITIONS[shape];
+				y[i] = Game.BLOCK_Y_POSITIONS[shape][i] - Game.BLOCK_ORIGIN_Y_POSITIONS[shape];
+			}
+
+			for(int rotation = 0; rotation < ROTATIONS; rotation++){
+				X_OFFSETS[shape][rotation] = x.clone();
+				Y_OFFSETS[shape][rotation] = y.clone();
+
+				int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+				int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+				for(int i = 0; i < tileCount; i++){
+					minX = Math.min(minX, x[i]);
+					maxX = Math.max(maxX, x[i]);
+					minY = Math.min(minY, y[i]);
+					maxY = Math.max(maxY, y[i]);
+				}
+				MIN_X[shape][rotation] = minX;
+				MAX_X[shape][rotation] = maxX;
+				MIN_Y[shape][rotation] = minY;
+				MAX_Y[shape][rotation] = maxY;
+
+				long[] masks = new long[maxY - minY + 1];
+				for(int i = 0; i < tileCount; i++){
+					masks[y[i] - minY] |= 1L << (x[i] - minX);
+				}
+				ROW_MASKS[shape][rotation] = masks;
+
+				// Every shape has a tile in each of its columns
+				int[] bottoms = new int[maxX - minX + 1];
+				Arrays.fill(bottoms, minY);
+				for(int i = 0; i < tileCount; i++){
+					bottoms[x[i] - minX] = Math.max(bottoms[x[i] - minX], y[i]);
+				}
+				COLUMN_BOTTOMS[shape][rotation] = bottoms;
+
+				// Turn the shape clockwise for the next rotation, the same way as Block.turn does
+				for(int i = 0; i < tileCount; i++){
+					int xDist = x[i];
+					x[i] = -y[i];
+					y[i] = xDist;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the rotation which results from turning the given rotation 90 degrees in the given direction
+	 */
+	public static int turn(int rotation, boolean isClockwise){
+		return (rotation + (isClockwise ? 1 : ROTATIONS-1)) % ROTATIONS;
+	}
+}
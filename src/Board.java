@@ -0,0 +1,608 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The tiles of a game area; stores which tiles are occupied
+ * and what type of block occupies each of them.
+ *
+ * Each row is kept as a single bitmask (bit x is set if the tile at x is occupied),
+ * so that checking a row for a tetris is one comparison and checking a tile for
+ * a collision is one shift and AND. The block types are kept separately,
+ * as they are only needed for drawing.
+ *
+ * The highest occupied tile of each column is kept up to date as tiles change,
+ * so that the height of the stack never needs to be searched for.
+ *
+ * A hash of which tiles are occupied is kept up to date as well, so that boards can be
+ * looked up (e.g. in a TranspositionTable) without reading every row. It is a Zobrist hash
+ * over rows: each occupied row's mask is mixed with a key for its row number, and the rows
+ * are XORed together, so changing a row only needs its old and new hash. Empty rows hash to 0.
+ *
+ * Boards can be very tall (tens of thousands of rows), but only the rows from the top of the stack down
+ * are ever occupied, so only the bottom rows are stored; the storage is doubled upwards whenever a tile
+ * above it is filled. A tall board which is nearly empty takes up little more memory than a short one,
+ * and every row that is stored is next to the rows around it.
+ *
+ * @author Robert Campbell
+ */
+public class Board {
+	// The maximum amount of tiles in a row; one for each bit of a long
+	public static final int MAX_WIDTH = 64;
+	// The amount of rows stored when a board is made, if it has that many
+	private static final int INITIAL_ROWS = 64;
+
+	private int width;
+	private int height;
+
+	// The mask of a row with every tile occupied
+	private long fullRowMask;
+
+	// The occupied tiles of each stored row; [0] is the top stored row
+	private long[] rows;
+	// The type of block in each tile of the stored rows, one row after another
+	private byte[] types;
+	// The top stored row; every row above it is empty
+	private int firstRow;
+
+	// The highest occupied row in each column, or the height if the column is empty
+	private int[] columnTops;
+	// The highest occupied row in the board, or the height if it is empty; every row above it is empty
+	private int stackTop;
+
+	// The XOR of the hash of every row (see getRowHash)
+	private long hash = 0;
+
+	/**
+	 * Constructor; creates a new, empty board.
+	 * @param width The amount of tiles in each row
+	 * @param height The amount of rows
+	 */
+	public Board(int width, int height){
+		if(width < 1 || width > MAX_WIDTH){
+			throw new IllegalArgumentException("Board width must be between 1 and " + MAX_WIDTH + ", was " + width + ".");
+		}
+		if(height < 1){
+			throw new IllegalArgumentException("Board height must be at least 1, was " + height + ".");
+		}
+		this.width = width;
+		this.height = height;
+		// Shifting a long by 64 does nothing, so a full width board has to be handled separately
+		fullRowMask = width == MAX_WIDTH ? -1L : (1L << width) - 1;
+		int storedRows = Math.min(height, INITIAL_ROWS);
+		rows = new long[storedRows];
+		types = new byte[width * storedRows];
+		firstRow = height - storedRows;
+		columnTops = new int[width];
+		Arrays.fill(columnTops, height);
+		stackTop = height;
+	}
+
+	/**
+	 * Returns the amount of tiles in each row
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	/**
+	 * Returns the amount of rows
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Makes this board's tiles the same as the given board's.
+	 * Both boards must be the same size.
+	 */
+	public void copyFrom(Board other){
+		if(other.width != width || other.height != height){
+			throw new IllegalArgumentException("Cannot copy a " + other.width + "x" + other.height + " board into a " + width + "x" + height + " board.");
+		}
+		// Only the rows which either board has occupied need copying
+		emptyRows(stackTop, other.stackTop);
+		storeRows(other.stackTop);
+		int count = height - other.stackTop;
+		System.arraycopy(other.rows, other.stackTop - other.firstRow, rows, other.stackTop - firstRow, count);
+		System.arraycopy(other.types, (other.stackTop - other.firstRow) * width, types, (other.stackTop - firstRow) * width, count * width);
+		System.arraycopy(other.columnTops, 0, columnTops, 0, width);
+		stackTop = other.stackTop;
+		hash = other.hash;
+	}
+
+	/**
+	 * Makes this board's tiles the same as the given persistent board's, e.g. to roll back to it.
+	 * Both boards must be the same size.
+	 */
+	public void copyFrom(PersistentBoard other){
+		if(other.getWidth() != width || other.getHeight() != height){
+			throw new IllegalArgumentException("Cannot copy a " + other.getWidth() + "x" + other.getHeight() + " board into a " + width + "x" + height + " board.");
+		}
+		// Only the rows which are occupied now need emptying; the rest are overwritten
+		int newStackTop = other.getStackTop();
+		emptyRows(stackTop, newStackTop);
+		storeRows(newStackTop);
+		other.copyRowsTo(rows, types, firstRow);
+		updateColumnTops(newStackTop);
+		hash = other.getHash();
+	}
+
+	/**
+	 * Returns a hash of the type of block in every tile, for checking that two boards are the same
+	 * without keeping a copy of either
+	 */
+	public long checksum(){
+		// FNV-1a over the tiles, one row after another
+		long checksum = skipEmptyTiles(0xcbf29ce484222325L, (long)firstRow * width);
+		for(int i = 0; i < types.length; i++){
+			checksum = (checksum ^ types[i]) * 0x100000001b3L;
+		}
+		return checksum;
+	}
+
+	/**
+	 * Returns the given checksum (see checksum()) carried on over the given amount of empty tiles.
+	 * Each empty tile only multiplies it by the FNV prime, so this is done all at once.
+	 */
+	static long skipEmptyTiles(long checksum, long tiles){
+		long multiplier = 0x100000001b3L;
+		for(; tiles != 0; tiles >>>= 1){
+			if((tiles & 1) != 0){ checksum *= multiplier; }
+			multiplier *= multiplier;
+		}
+		return checksum;
+	}
+
+	/**
+	 * Returns the most bytes that writeSnapshot can take up for a board of the given size
+	 */
+	public static int getMaxSnapshotSize(int width, int height){
+		// The size and the top of the stack, then each row's mask and the types of its tiles
+		return 12 + height * ((width + 7) / 8) + (height * width * 3 + 7) / 8;
+	}
+
+	/**
+	 * Writes the board's tiles at the buffer's position.
+	 * Only the rows from the top of the stack down are written; each is its mask of occupied tiles,
+	 * and then the type of each occupied tile is packed into 3 bits.
+	 * @throws java.nio.BufferOverflowException If the buffer doesn't have room (see getMaxSnapshotSize)
+	 */
+	public void writeSnapshot(ByteBuffer buffer){
+		buffer.putInt(width);
+		buffer.putInt(height);
+		buffer.putInt(stackTop);
+		int maskBytes = (width + 7) / 8;
+		for(int y = stackTop; y < height; y++){
+			long row = rows[y - firstRow];
+			for(int i = 0; i < maskBytes; i++){
+				buffer.put((byte)(row >>> (i*8)));
+			}
+		}
+		// Pack the types of the occupied tiles, lowest bits first
+		long bits = 0;
+		int bitCount = 0;
+		for(int y = stackTop; y < height; y++){
+			long row = rows[y - firstRow];
+			while(row != 0){
+				bits |= (long)types[(y - firstRow) * width + Long.numberOfTrailingZeros(row)] << bitCount;
+				bitCount += 3;
+				row &= row-1;
+				if(bitCount >= 8){
+					buffer.put((byte)bits);
+					bits >>>= 8;
+					bitCount -= 8;
+				}
+			}
+		}
+		if(bitCount > 0){
+			buffer.put((byte)bits);
+		}
+	}
+
+	/**
+	 * Replaces the board's tiles with ones written by writeSnapshot, from the buffer's position.
+	 * The snapshot must be of a board of the same size.
+	 */
+	public void readSnapshot(ByteBuffer buffer){
+		int snapshotWidth = buffer.getInt();
+		int snapshotHeight = buffer.getInt();
+		if(snapshotWidth != width || snapshotHeight != height){
+			throw new IllegalArgumentException("Cannot restore a " + snapshotWidth + "x" + snapshotHeight + " board into a " + width + "x" + height + " board.");
+		}
+		int newStackTop = buffer.getInt();
+		if(newStackTop < 0 || newStackTop > height){
+			throw new IllegalArgumentException("Board snapshot has its stack top at " + newStackTop + ", outside of the board.");
+		}
+		// Empty every row which is occupied now or will be
+		storeRows(newStackTop);
+		int emptyFrom = Math.min(stackTop, newStackTop) - firstRow;
+		Arrays.fill(rows, emptyFrom, rows.length, 0);
+		Arrays.fill(types, emptyFrom * width, types.length, (byte)0);
+
+		int maskBytes = (width + 7) / 8;
+		for(int y = newStackTop; y < height; y++){
+			long row = 0;
+			for(int i = 0; i < maskBytes; i++){
+				row |= (long)(buffer.get() & 0xff) << (i*8);
+			}
+			rows[y - firstRow] = row & fullRowMask;
+		}
+		long bits = 0;
+		int bitCount = 0;
+		for(int y = newStackTop; y < height; y++){
+			long row = rows[y - firstRow];
+			while(row != 0){
+				if(bitCount < 3){
+					bits |= (long)(buffer.get() & 0xff) << bitCount;
+					bitCount += 8;
+				}
+				types[(y - firstRow) * width + Long.numberOfTrailingZeros(row)] = (byte)(bits & 7);
+				bits >>>= 3;
+				bitCount -= 3;
+				row &= row-1;
+			}
+		}
+		updateColumnTops(newStackTop);
+		rehash();
+	}
+
+	/**
+	 * Returns the type of block in the given tile, or 0 if it is empty
+	 */
+	public int getTileValue(int x, int y){
+		if(y < firstRow){
+			return 0;
+		}
+		return types[(y - firstRow) * width + x];
+	}
+
+	/**
+	 * Sets the type of block in the given tile; a type of 0 empties it
+	 */
+	public void setTileValue(int x, int y, int blockType){
+		if(y < firstRow){
+			// Rows which aren't stored are already empty
+			if(blockType == 0){ return; }
+			storeRows(y);
+		}
+		int row = y - firstRow;
+		types[row * width + x] = (byte)blockType;
+		long oldRow = rows[row];
+		if(blockType == 0){
+			rows[row] &= ~(1L << x);
+			// If the highest tile of the column was emptied, the column's top has to be found again
+			if(columnTops[x] == y){
+				updateColumnTops(stackTop);
+			}
+		}
+		else{
+			rows[row] |= 1L << x;
+			if(y < columnTops[x]){ columnTops[x] = y; }
+			if(y < stackTop){ stackTop = y; }
+		}
+		if(rows[row] != oldRow){
+			hash ^= getRowHash(y, oldRow) ^ getRowHash(y, rows[row]);
+		}
+	}
+
+	/**
+	 * Returns a hash of which tiles are occupied; boards with the same tiles occupied always have the same hash
+	 */
+	public long getHash(){
+		return hash;
+	}
+
+	/**
+	 * Returns the part of the hash of a board which comes from the given row having the given tiles occupied.
+	 * The hash of a board with that row changed is its hash XORed with the row's old and new hashes.
+	 */
+	public static long getRowHash(int y, long row){
+		if(row == 0){
+			return 0;
+		}
+		return SeededRandom.mix(row ^ SeededRandom.mix(y + 1));
+	}
+
+	/**
+	 * Works out the hash again from every row
+	 */
+	private void rehash(){
+		hash = 0;
+		for(int y = stackTop; y < height; y++){
+			hash ^= getRowHash(y, rows[y - firstRow]);
+		}
+	}
+
+	/**
+	 * Makes sure that every row from the given one down is stored, doubling the storage upwards until it is
+	 */
+	private void storeRows(int y){
+		if(y >= firstRow){
+			return;
+		}
+		int storedRows = rows.length;
+		int newStoredRows = Math.min(height, Math.max(storedRows * 2, height - y));
+		long[] newRows = new long[newStoredRows];
+		byte[] newTypes = new byte[newStoredRows * width];
+		// The stored rows are the bottom ones, so they go at the end
+		System.arraycopy(rows, 0, newRows, newStoredRows - storedRows, storedRows);
+		System.arraycopy(types, 0, newTypes, (newStoredRows - storedRows) * width, types.length);
+		rows = newRows;
+		types = newTypes;
+		firstRow = height - newStoredRows;
+	}
+
+	/**
+	 * Empties the rows from the first given row to just above the second one, where they are stored
+	 */
+	private void emptyRows(int fromRow, int toRow){
+		fromRow = Math.max(fromRow, firstRow);
+		if(fromRow >= toRow){
+			return;
+		}
+		Arrays.fill(rows, fromRow - firstRow, toRow - firstRow, 0);
+		Arrays.fill(types, (fromRow - firstRow) * width, (toRow - firstRow) * width, (byte)0);
+	}
+
+	/**
+	 * Returns the highest occupied row in the given column, or the height if the column is empty
+	 */
+	public int getColumnTop(int x){
+		return columnTops[x];
+	}
+
+	/**
+	 * Returns the amount of rows from the bottom up to and including the highest occupied tile in the given column
+	 */
+	public int getColumnHeight(int x){
+		return height - columnTops[x];
+	}
+
+	/**
+	 * Returns the highest occupied row in the board, or the height if it is empty
+	 */
+	public int getStackTop(){
+		return stackTop;
+	}
+
+	/**
+	 * Returns the amount of occupied tiles in the given row
+	 */
+	public int getRowCount(int y){
+		return Long.bitCount(getRow(y));
+	}
+
+	/**
+	 * Finds the highest occupied row of every column and of the whole board again.
+	 * @param fromRow A row which is known to be at or above the highest occupied tile
+	 */
+	private void updateColumnTops(int fromRow){
+		Arrays.fill(columnTops, height);
+		stackTop = height;
+		// The columns which haven't had an occupied tile found in them yet
+		long unseen = fullRowMask;
+		for(int y = Math.max(fromRow, firstRow); y < height && unseen != 0; y++){
+			long found = rows[y - firstRow] & unseen;
+			if(found == 0){
+				continue;
+			}
+			if(stackTop == height){ stackTop = y; }
+			unseen &= ~found;
+			while(found != 0){
+				columnTops[Long.numberOfTrailingZeros(found)] = y;
+				found &= found-1;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the given tile is occupied.
+	 * Tiles above the top of the board are never occupied.
+	 */
+	public boolean isOccupied(int x, int y){
+		if(y < firstRow){
+			return false;
+		}
+		return ((rows[y - firstRow] >>> x) & 1) != 0;
+	}
+
+	/**
+	 * Checks whether a block, given as a mask of its tiles for each of its rows,
+	 * would overlap any occupied tiles if its left-most column was at x and its top row at y.
+	 * Rows above the top of the board are empty; the block must be within the other edges.
+	 */
+	public boolean overlaps(long[] rowMasks, int x, int y){
+		for(int i = 0; i < rowMasks.length; i++){
+			if(y+i >= firstRow && (rows[y+i - firstRow] & (rowMasks[i] << x)) != 0){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a block of the given shape and rotation (see BlockRotations) would fit with its origin at the given position;
+	 * that is, whether it would be within the sides and bottom of the board without overlapping any tiles.
+	 * Tiles above the top of the board are always allowed.
+	 */
+	public boolean fits(int shape, int rotation, int originX, int originY){
+		int left = originX + BlockRotations.MIN_X[shape][rotation];
+		int right = originX + BlockRotations.MAX_X[shape][rotation];
+		int top = originY + BlockRotations.MIN_Y[shape][rotation];
+		int bottom = originY + BlockRotations.MAX_Y[shape][rotation];
+
+		// Check the block against
+		// 1. Vertical board boundaries
+		if(bottom >= height){
+			return false;
+		}
+		// 2. Horizontal board boundaries
+		if(left < 0 || right >= width){
+			return false;
+		}
+		// 3. Other tiles
+		return !overlaps(BlockRotations.ROW_MASKS[shape][rotation], left, top);
+	}
+
+	/**
+	 * Returns the row which the origin of a block of the given shape and rotation (see BlockRotations) would end up in
+	 * if it fell straight down from the given position, which it must fit in.
+	 * If the block is above the top of each of its columns, this is found from the column tops without looking at any rows;
+	 * otherwise (e.g. if it has been slid under an overhang), it is moved down one row at a time.
+	 */
+	public int getDropY(int shape, int rotation, int originX, int originY){
+		int left = originX + BlockRotations.MIN_X[shape][rotation];
+		int[] bottoms = BlockRotations.COLUMN_BOTTOMS[shape][rotation];
+		// Each column's lowest tile stops just above the top of that column; empty columns' tops are the bottom of the board
+		int dropY = Integer.MAX_VALUE;
+		for(int i = 0; i < bottoms.length; i++){
+			dropY = Math.min(dropY, columnTops[left + i] - 1 - bottoms[i]);
+		}
+		if(dropY >= originY){
+			return dropY;
+		}
+		while(fits(shape, rotation, originX, originY+1)){
+			originY++;
+		}
+		return originY;
+	}
+
+	/**
+	 * Fills the tiles of a block of the given shape and rotation (see BlockRotations) with its origin at the given position.
+	 * Every tile must be on the board.
+	 */
+	public void place(int shape, int rotation, int originX, int originY){
+		int[] xOffsets = BlockRotations.X_OFFSETS[shape][rotation];
+		int[] yOffsets = BlockRotations.Y_OFFSETS[shape][rotation];
+		for(int i = 0; i < xOffsets.length; i++){
+			setTileValue(originX + xOffsets[i], originY + yOffsets[i], shape+1);
+		}
+	}
+
+	/**
+	 * Returns the mask of occupied tiles in the given row
+	 */
+	public long getRow(int y){
+		if(y < firstRow){
+			return 0;
+		}
+		return rows[y - firstRow];
+	}
+
+	/**
+	 * Returns the mask of a row with every tile occupied
+	 */
+	public long getFullRowMask(){
+		return fullRowMask;
+	}
+
+	/**
+	 * Checks whether every tile in the given row is occupied
+	 */
+	public boolean isRowFull(int y){
+		return getRow(y) == fullRowMask;
+	}
+
+	/**
+	 * Empties every tile in the given row
+	 */
+	public void clearRow(int y){
+		if(getRow(y) == 0){
+			return;
+		}
+		hash ^= getRowHash(y, rows[y - firstRow]);
+		rows[y - firstRow] = 0;
+		Arrays.fill(types, (y - firstRow) * width, (y - firstRow + 1) * width, (byte)0);
+		updateColumnTops(stackTop);
+	}
+
+	/**
+	 * Removes every full row, dropping the rows above each of them down to fill the gap.
+	 * See clearFullRows(int, int).
+	 * @return The amount of rows which were removed
+	 */
+	public int clearFullRows(){
+		return clearFullRows(0, height-1);
+	}
+
+	/**
+	 * Removes every full row between the given rows (inclusive), dropping the rows above each of them down to fill the gap.
+	 * Only these rows are checked, so they must include every row which has changed since full rows were last removed.
+	 * The rows are all moved in a single pass from the lowest full row up to the top of the stack,
+	 * no matter how many are removed.
+	 * @param topRow The highest row which could be full
+	 * @param bottomRow The lowest row which could be full
+	 * @return The amount of rows which were removed
+	 */
+	public int clearFullRows(int topRow, int bottomRow){
+		// Find the lowest full row; if there isn't one, nothing needs to move
+		int lowestFullRow = -1;
+		// Rows above the top of the stack are empty, so they can't be full
+		for(int y = Math.min(bottomRow, height-1); y >= Math.max(topRow, stackTop); y--){
+			if(rows[y - firstRow] == fullRowMask){
+				lowestFullRow = y;
+				break;
+			}
+		}
+		if(lowestFullRow == -1){
+			return 0;
+		}
+		// Every row from the top of the stack down to the lowest full row can change, so take them out of the hash
+		int oldStackTop = stackTop;
+		for(int y = oldStackTop; y <= lowestFullRow; y++){
+			hash ^= getRowHash(y, rows[y - firstRow]);
+		}
+
+		// The row which the next row that isn't full should be moved to
+		int writeRow = lowestFullRow;
+		int readRow = lowestFullRow;
+		// Every row above the top of the stack is empty, so there's no need to move them
+		while(readRow >= stackTop){
+			if(rows[readRow - firstRow] == fullRowMask){
+				readRow--;
+				continue;
+			}
+			// Find the run of rows which aren't full ending here, and move it down all at once
+			int runEnd = readRow;
+			while(readRow >= stackTop && rows[readRow - firstRow] != fullRowMask){
+				readRow--;
+			}
+			int runLength = runEnd - readRow;
+			if(writeRow != runEnd){
+				System.arraycopy(rows, readRow+1 - firstRow, rows, writeRow-runLength+1 - firstRow, runLength);
+				System.arraycopy(types, (readRow+1 - firstRow) * width, types, (writeRow-runLength+1 - firstRow) * width, runLength * width);
+			}
+			writeRow -= runLength;
+		}
+		// Every row which was removed leaves an empty row at the top of the stack
+		int cleared = writeRow - readRow;
+		for(int y = writeRow; y > readRow; y--){
+			rows[y - firstRow] = 0;
+			Arrays.fill(types, (y - firstRow) * width, (y - firstRow + 1) * width, (byte)0);
+		}
+		// And put them back in as they are now
+		for(int y = oldStackTop; y <= lowestFullRow; y++){
+			hash ^= getRowHash(y, rows[y - firstRow]);
+		}
+		updateColumnTops(stackTop);
+		return cleared;
+	}
+
+	/**
+	 * Shifts all rows *above a given row* down by one, overwriting the given row.
+	 * The top row is left empty.
+	 * @param y The row above which to shift all rows down
+	 */
+	public void shiftRowsDown(int y){
+		// Every row above the top of the stack is empty, so only the rows from there down to the given row move
+		if(y >= stackTop){
+			int top = stackTop - firstRow;
+			System.arraycopy(rows, top, rows, top+1, y - stackTop);
+			System.arraycopy(types, top * width, types, (top+1) * width, (y - stackTop) * width);
+			rows[top] = 0;
+			Arrays.fill(types, top * width, (top+1) * width, (byte)0);
+		}
+		updateColumnTops(stackTop);
+		rehash();
+	}
+}
@@ -1,13 +1,13 @@
 import java.awt.*;
-import java.awt.event.*;
 import java.lang.Math;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.io.*;
-
-import javax.swing.Timer;
 
 /**
  * Handles a game of Tetris.
+ * Only contains the rules of the game; drawing it, timing it and saving highscores
+ * are done by whatever is listening to it (see GameSession), so that it can also be
+ * played without a window as fast as step() can be called.
  *
  * @author Robert Campbell
  *
@@ -30,10 +30,13 @@ public class Game {
 	// The default initial dimensions of the GUI
 	public static final int GUI_WIDTH = 300;
 	public static final int GUI_HEIGHT = GAME_AREA_HEIGHT;
-	// The amount of 'tiles' in the game and their sizes
+	// The amount of 'tiles' in a game played in the window and their sizes; other games can have any amount (see Game(int, int, long, int, int))
 	public static final int TILE_SIZE = 30;
 	public static final int HORIZONTAL_TILES = GAME_AREA_WIDTH / TILE_SIZE; // Number of tiles depends on area size and tile size
 	public static final int VERTICAL_TILES = GAME_AREA_HEIGHT / TILE_SIZE;
+	// The fewest tiles a game area can have across and down; enough for every block to be made and turned
+	public static final int MIN_HORIZONTAL_TILES = 4;
+	public static final int MIN_VERTICAL_TILES = 4;
 	// The amount of milliseconds between downward movements at level one
 	public static final int FALL_DELAY = 500;
 	// The millisecond value of the fall delay at a given level is:
@@ -71,22 +74,50 @@ public class Game {
 	// Possible colors for blocks (in order, each color corresponds to a block shape)
 	public static final Color[] BLOCK_COLORS = { new Color(150,0,0), new Color(150,150,0),  new Color(100,0,100), new Color(0,0,150), new Color(32,178,170), new Color(34,139,34), new Color(150,70,0)};
 
+	// The amount of upcoming blocks which can be seen in the queue by default
+	public static final int PREVIEW_DEPTH = 6;
+
+	// Snapshots (see writeSnapshot) start with this, and their version
+	private static final int SNAPSHOT_MAGIC = 0x54534e50;
+	private static final int SNAPSHOT_VERSION = 1;
+
+	// Actions which can be applied to the game (see apply(int))
+	public static final int ACTION_MOVE_LEFT = 1;
+	public static final int ACTION_MOVE_RIGHT = 2;
+	public static final int ACTION_TURN_CLOCKWISE = 3;
+	public static final int ACTION_TURN_ANTICLOCKWISE = 4;
+	public static final int ACTION_RUSH_DOWN = 5;
+	public static final int ACTION_HALT_RUSH_DOWN = 6;
+	public static final int ACTION_QUIT = 7;
+	public static final int ACTION_HARD_DROP = 8;
+	// The actions which move or turn the current block
+	public static final int[] MOVE_ACTIONS = { ACTION_MOVE_LEFT, ACTION_MOVE_RIGHT, ACTION_TURN_CLOCKWISE, ACTION_TURN_ANTICLOCKWISE };
+
 	/**
 	 * FIELDS
 	 */
 
 	private int difficulty;
 	private int level;
+	private int initialLevel;
+	// The total amount of lines cleared so far
+	private int linesCleared = 0;
+	// The total amount of blocks made so far, including the one falling
+	private int blockCount = 0;
 	private double score = 0;
-	private GameScreen gameWindow;
 
 	// Stores the type of block in each tile; [0,0] is top left, [max,max] is bottom right
 	// We need 2 tiles above to store blocks as they spawn above the top of the visible area
-	private int[][] tiles = new int[HORIZONTAL_TILES][VERTICAL_TILES];
+	private Board board;
 	private Block currentBlock;
+	// The last block to have been placed, which can be reused so that a new one doesn't need to be made
+	private Block spareBlock;
 
+	// The seed which the order of the blocks comes from, and the generator made from it
+	private long seed;
+	private SeededRandom random;
 	// The order of the next blocks to drop
-	private LinkedList<Integer> nextBlocks = new LinkedList<Integer>();
+	private PieceQueue nextBlocks;
 
 	// Whether or not the down button is currently pressed down
 	public boolean isDownButton = false;
@@ -94,41 +125,227 @@ public class Game {
 	// Whether or not a new block should be made in the next frame
 	private boolean isMakingNewBlock = true;
 
-	// The listener which calls block actions periodically
-	private ActionListener blockPerformer;
-	// The timer which is used for block actions
-	private Timer blockTimer;
+	// Whether or not the game has ended
+	private boolean isOver = false;
+
+	// The amount of times step() has been called while the game was running
+	private long stepCount = 0;
+
+	// Everything which should be told when the game changes or ends
+	private ArrayList<GameListener> listeners = new ArrayList<GameListener>();
 
 	/**
-	 * Constructor; creates a new instance of the game on the given difficulty and the given initial level.
+	 * Constructor; creates a new instance of the game on the given difficulty and the given initial level,
+	 * with a new random order of blocks.
 	 *
 	 * @param difficulty The difficulty for the game instance.
 	 * @param initialLevel The level on which the game instance will start,
 	 */
 	public Game(int difficulty, int initialLevel){
+		this(difficulty, initialLevel, SeededRandom.newSeed());
+	}
+
+	/**
+	 * Constructor; creates a new instance of the game on the given difficulty and the given initial level.
+	 * Games with the same seed get the same blocks in the same order.
+	 *
+	 * @param difficulty The difficulty for the game instance.
+	 * @param initialLevel The level on which the game instance will start,
+	 * @param seed The seed for the order of the blocks
+	 */
+	public Game(int difficulty, int initialLevel, long seed){
+		this(difficulty, initialLevel, seed, HORIZONTAL_TILES, VERTICAL_TILES);
+	}
+
+	/**
+	 * Constructor; creates a new instance of the game on the given difficulty and the given initial level,
+	 * with a game area of the given size rather than the size of the window.
+	 *
+	 * @param difficulty The difficulty for the game instance.
+	 * @param initialLevel The level on which the game instance will start,
+	 * @param seed The seed for the order of the blocks
+	 * @param width The amount of tiles across the game area, up to Board.MAX_WIDTH
+	 * @param height The amount of tiles down the game area
+	 */
+	public Game(int difficulty, int initialLevel, long seed, int width, int height){
+		if(width < MIN_HORIZONTAL_TILES || width > Board.MAX_WIDTH){
+			throw new IllegalArgumentException("Game area width must be between " + MIN_HORIZONTAL_TILES + " and " + Board.MAX_WIDTH + ", was " + width + ".");
+		}
+		if(height < MIN_VERTICAL_TILES){
+			throw new IllegalArgumentException("Game area height must be at least " + MIN_VERTICAL_TILES + ", was " + height + ".");
+		}
+		this.board = new Board(width, height);
 		this.difficulty = difficulty;
 		this.level = initialLevel - 1;
+		this.initialLevel = initialLevel;
+		this.seed = seed;
+		this.random = new SeededRandom(seed);
+		this.nextBlocks = new PieceQueue(random, PREVIEW_DEPTH);
+	}
 
-		gameWindow = new GameScreen(this);
+	/**
+	 * Adds a listener which will be told whenever the game changes or ends
+	 */
+	public void addGameListener(GameListener listener){
+		listeners.add(listener);
+	}
 
-		// Continuously makes block tasks occur on a timer
-		blockPerformer = new ActionListener(){
-			public void actionPerformed(ActionEvent evt){
-				doBlocks();
-			}
-		};
-		resetBlockTimer();
+	/**
+	 * Removes a listener that was added with addGameListener
+	 */
+	public void removeGameListener(GameListener listener){
+		listeners.remove(listener);
 	}
 
 	/**
-	 * Restarts the block timer with a new value
+	 * Returns the amount of milliseconds which should pass between calls to step(),
+	 * given the current level, difficulty and whether the down button is pressed
 	 */
-	public void resetBlockTimer(){
+	public int getFallDelay(){
 		int timeGap = FALL_DELAY * 1/ (int)Math.pow(Math.E, level*FALL_DECREASE_MULTIPLIER) / difficulty;
 		if(isDownButton){ timeGap *= DOWN_BUTTON_MULTIPLIER; }
-		if(blockTimer != null){ blockTimer.stop(); }
-		blockTimer = new Timer(timeGap, blockPerformer);
-		blockTimer.start();
+		return timeGap;
+	}
+
+	/**
+	 * Advances the game by one tick; makes a new block or moves the current one down.
+	 * Does nothing once the game has ended.
+	 */
+	public void step(){
+		if(isOver){ return; }
+		stepCount++;
+		doBlocks();
+	}
+
+	/**
+	 * Applies the given action (one of the ACTION_ constants) to the game.
+	 * Does nothing once the game has ended.
+	 */
+	public void apply(int action){
+		if(isOver){ return; }
+		if(action < ACTION_MOVE_LEFT || action > ACTION_HARD_DROP){
+			throw new IllegalArgumentException("Unknown game action " + action + ".");
+		}
+		for(int i = 0; i < listeners.size(); i++){
+			listeners.get(i).actionApplied(this, action);
+		}
+		switch(action){
+		case ACTION_MOVE_LEFT:
+			moveHorizontally(false);
+			break;
+		case ACTION_MOVE_RIGHT:
+			moveHorizontally(true);
+			break;
+		case ACTION_TURN_CLOCKWISE:
+			turnCurrentPiece(true);
+			break;
+		case ACTION_TURN_ANTICLOCKWISE:
+			turnCurrentPiece(false);
+			break;
+		case ACTION_RUSH_DOWN:
+			rushDown();
+			break;
+		case ACTION_HALT_RUSH_DOWN:
+			haltRushDown();
+			break;
+		case ACTION_QUIT:
+			loseGame();
+			break;
+		case ACTION_HARD_DROP:
+			hardDrop();
+			break;
+		}
+	}
+
+	/**
+	 * Returns the amount of times the game has been stepped; actions applied between the same steps
+	 * always have the same effect, so this is all that's needed to play a game again
+	 */
+	public long getStepCount(){
+		return stepCount;
+	}
+
+	/**
+	 * Returns the most bytes that writeSnapshot can take up for this game as it is now
+	 */
+	public int getMaxSnapshotSize(){
+		int size = 66 + Board.getMaxSnapshotSize(board.getWidth(), board.getHeight()) + nextBlocks.getMaxSnapshotSize();
+		if(currentBlock != null){ size += currentBlock.getMaxSnapshotSize(); }
+		return size;
+	}
+
+	/**
+	 * Writes the whole state of the game at the buffer's position, so that it can be carried on from
+	 * here later with readSnapshot; for saving a game, or trying out moves and going back.
+	 * Nothing is allocated, so a game can be snapshotted often into the same buffer.
+	 * @throws java.nio.BufferOverflowException If the buffer doesn't have room (see getMaxSnapshotSize)
+	 */
+	public void writeSnapshot(ByteBuffer buffer){
+		buffer.putInt(SNAPSHOT_MAGIC);
+		buffer.put((byte)SNAPSHOT_VERSION);
+		buffer.putLong(seed);
+		buffer.putLong(random.getState());
+		buffer.putLong(stepCount);
+		buffer.putDouble(score);
+		buffer.putInt(difficulty);
+		buffer.putInt(level);
+		buffer.putInt(initialLevel);
+		buffer.putInt(linesCleared);
+		buffer.putInt(blockCount);
+		int flags = (isDownButton ? 1 : 0) | (isMakingNewBlock ? 2 : 0) | (isOver ? 4 : 0) | (currentBlock != null ? 8 : 0);
+		buffer.put((byte)flags);
+		if(currentBlock != null){
+			currentBlock.writeSnapshot(buffer);
+		}
+		nextBlocks.writeSnapshot(buffer);
+		board.writeSnapshot(buffer);
+	}
+
+	/**
+	 * Replaces the whole state of the game with one written by writeSnapshot, from the buffer's position.
+	 * Listeners are kept, and told that everything has changed.
+	 * Nothing is allocated unless the snapshot has a block and this game doesn't have one to reuse.
+	 */
+	public void readSnapshot(ByteBuffer buffer){
+		if(buffer.getInt() != SNAPSHOT_MAGIC || buffer.get() != SNAPSHOT_VERSION){
+			throw new IllegalArgumentException("Not a game snapshot this version can read.");
+		}
+		seed = buffer.getLong();
+		random.setState(buffer.getLong());
+		stepCount = buffer.getLong();
+		score = buffer.getDouble();
+		difficulty = buffer.getInt();
+		level = buffer.getInt();
+		initialLevel = buffer.getInt();
+		linesCleared = buffer.getInt();
+		blockCount = buffer.getInt();
+		int flags = buffer.get();
+		isDownButton = (flags & 1) != 0;
+		isMakingNewBlock = (flags & 2) != 0;
+		isOver = (flags & 4) != 0;
+		if((flags & 8) != 0){
+			if(currentBlock == null){
+				currentBlock = spareBlock != null ? spareBlock : new Block(1, 0, 0);
+				spareBlock = null;
+			}
+			currentBlock.readSnapshot(buffer);
+		}
+		else if(currentBlock != null){
+			spareBlock = currentBlock;
+			currentBlock = null;
+		}
+		nextBlocks.readSnapshot(buffer);
+		board.readSnapshot(buffer);
+
+		fireTilesChanged(0, board.getHeight()-1);
+		redraw();
+	}
+
+	/**
+	 * Returns whether or not the game has ended
+	 */
+	public boolean isOver(){
+		return isOver;
 	}
 
 	/**
@@ -144,8 +361,8 @@ public class Game {
 		assert x.length == y.length : "Tile position lists not equal length.";
 		// Check to see that the array values are within bounds
 		for(int i = 0; i < x.length; i++){
-			assert(x[i] < HORIZONTAL_TILES) : "Tile horizontal position out of bounds.";
-			assert(y[i] < VERTICAL_TILES) : "Tile vertical position out of bounds.";
+			assert(x[i] < board.getWidth()) : "Tile horizontal position out of bounds.";
+			assert(y[i] < board.getHeight()) : "Tile vertical position out of bounds.";
 		}
 	}
 
@@ -154,46 +371,26 @@ public class Game {
 	 * - Creates a new block if there isn't one currently falling.
 	 * - Chooses which blocks come next.
 	 * - Causes the current block to drop every frame if it can.
-	 * - Redraws the game every frame.
+	 * - Tells listeners to redraw the game every frame.
 	 */
 	private void doBlocks(){
 		// Make a new block if necessary
 		if(isMakingNewBlock){
-			// Check if there are fewer than or equal to 7 remaining blocks in the queue; if there are,
-			// we should generate a new set of blocks
-			if(nextBlocks.size() <= 7){
-				addBlocksToQueue();
-			}
-
 			// Every time a new block is made, increment the 'level'
 			level++;
+			blockCount++;
 
-			// Grab the number of the block to generate from nextBlocks
-			int nextBlock = nextBlocks.pop();
-
-			// Generate a new array for the x positions of the new block
-			int[] newBlockXPositions = new int[BLOCK_X_POSITIONS[nextBlock].length];
-			// And one for the y positions
-			int[] newBlockYPositions = new int[BLOCK_Y_POSITIONS[nextBlock].length];
+			// Grab the number of the block to generate from nextBlocks, which refills itself with a new bag when it runs low
+			int nextBlock = nextBlocks.next();
 
-			// Because the new block must appear in the center of the area, and BLOCK_X_POSITIONS gives values
-			// relative to this center, add half of the width of the area to every value in the array.
-			// We also have to subtract some from the y positions to make the block initially above the screen
-			for(int i = 0; i < BLOCK_X_POSITIONS[nextBlock].length; i++){
-				newBlockXPositions[i] = BLOCK_X_POSITIONS[nextBlock][i] + (int)Math.floor(HORIZONTAL_TILES/2);
-				newBlockYPositions[i] = BLOCK_Y_POSITIONS[nextBlock][i] - 2;
-			}
-
-			// Make the new block
+			// Make the new block. Because it must appear in the center of the area, and BLOCK_ORIGIN_X_POSITIONS gives
+			// values relative to this center, add half of the width of the area to its origin.
+			// We also have to subtract some from its y position to make the block initially above the screen
 			newBlock(
-						// X and y positions come from the arrays that we just generated
-						newBlockXPositions,
-						newBlockYPositions,
-						// The origin x and y positions have static arrays
-						BLOCK_ORIGIN_X_POSITIONS[nextBlock] + (int)Math.floor(HORIZONTAL_TILES/2),
-						BLOCK_ORIGIN_Y_POSITIONS[nextBlock],
-						// And the block type comes from our random number incremented (as 0 indicates a tile without a block)
-						nextBlock+1
+						// The block type comes from our random number incremented (as 0 indicates a tile without a block)
+						nextBlock+1,
+						BLOCK_ORIGIN_X_POSITIONS[nextBlock] + board.getWidth()/2,
+						BLOCK_ORIGIN_Y_POSITIONS[nextBlock] - 2
 					);
 
 			// Wait until the next iteration of the game loop to move the block, but redraw the frame and update the flag now
@@ -206,21 +403,7 @@ public class Game {
 		if(!checkValidFall(currentBlock)) {
 			// If it can't go down any further, make a new block on the next frame
 			isMakingNewBlock = true;
-
-			// Place the current block into the tile area
-			for(int i = 0; i < currentBlock.getXPositions().length; i++){
-				// If it's above the top edge of the map and can't move down, then tiles must be filled to the top and the player has lost
-				if(currentBlock.getYPositions()[i] < 0){
-					loseGame();
-					return;
-				}
-				tiles[ currentBlock.getXPositions()[i] ][ currentBlock.getYPositions()[i] ] = currentBlock.getBlockType();
-			}
-			// Nullify the current block
-			currentBlock = null;
-			// And check for any new tetrises
-			checkForTetris();
-			redraw();
+			placeCurrentBlock();
 		}
 		else{
 			isMakingNewBlock = false;
@@ -229,84 +412,85 @@ public class Game {
 			currentBlock.shiftDown();
 			redraw();
 		}
-
-		gameWindow.doKeys();
 	}
 
 	/**
-	 * Inserts a new randomised list of 7 blocks to the block queue
+	 * Places the current block into the tile area where it is, and checks for any tetrises it made.
+	 * The game is lost if any of it is above the top of the area.
 	 */
-	private void addBlocksToQueue(){
-		// Tetris uses an algorithm such that, for each group of 7 blocks dropped,
-		// there will be no duplicates, meaning that one of each type of block must
-		// drop exactly one-seventh of the time.
-
-		// Sets up a new random list of blocks if the nextBlocks list gets to too low size
-
-		// Build a list of numbers from 0-6 (ordered)
-		ArrayList<Integer> nums = new ArrayList<Integer>();
-		for(int i = 0; i < 7; i++) nums.add(i);
-
-		for(int i = 0; i < 7; i++){
-			// Get a random index
-			int index = (int)(Math.random()*(7-i));
-			// And insert this index from the numbers into the randomised queue
-			nextBlocks.push(nums.get(index));
-			nums.remove(index);
+	private void placeCurrentBlock(){
+		int[] xPositions = currentBlock.getXPositions();
+		int[] yPositions = currentBlock.getYPositions();
+		// Keep track of the rows that the block is in, as only they can have become full
+		int topRow = board.getHeight();
+		int bottomRow = -1;
+		for(int i = 0; i < currentBlock.getTileCount(); i++){
+			// If it's above the top edge of the map and can't move down, then tiles must be filled to the top and the player has lost
+			if(yPositions[i] < 0){
+				loseGame();
+				return;
+			}
+			board.setTileValue(xPositions[i], yPositions[i], currentBlock.getBlockType());
+			topRow = Math.min(topRow, yPositions[i]);
+			bottomRow = Math.max(bottomRow, yPositions[i]);
 		}
+		// Nullify the current block, keeping it to be reused for the next one
+		spareBlock = currentBlock;
+		currentBlock = null;
+		fireTilesChanged(topRow, bottomRow);
+		// And check for any new tetrises
+		checkForTetris(topRow, bottomRow);
+		redraw();
 	}
 
 	/**
-	 * Ends the game, with the player losing. Returns to the main screen.
+	 * Drops the current block straight down as far as it can go and places it there at once,
+	 * rather than letting it fall one row each step; a new block is made on the next step.
 	 */
-	public void loseGame(){
-		// First, check the players score against the highscores list and edit the highscores list if necessary
-		try{
-			// Put the current highscores into an array
-			Scanner s = new Scanner(new File("highscores.txt"));
-			double[] highscores = new double[10];
-			int i = 0;
-			while(s.hasNextDouble()){
-				highscores[i] = s.nextDouble();
-				i++;
-			}
-			s.close();
-
-			// Then, find the index in this array where the highscore is
-			int highscorePlace = -1;
-			for(int j = 0; j < 10; j++){
-				if(score > highscores[j]){
-					highscorePlace = j;
-					break;
-				}
-			}
-
-			// Only edit the highscores list if the current score is greater than one of the highscores
-			if(highscorePlace != -1){
-				// Move all of the highscores at and below that place down by one (discarding the last one)
-				for(int j = 8; j >= highscorePlace; j--){
-					highscores[j+1] = highscores[j];
-				}
-				// And insert the current score at the specified place
-				highscores[highscorePlace] = score;
+	public void hardDrop(){
+		if(currentBlock == null){ return; }
+		currentBlock.shiftDown(getDropDistance());
+		isMakingNewBlock = true;
+		placeCurrentBlock();
+	}
 
-				// Then, write the new highscores to the highscores list
-				PrintStream p = new PrintStream(new File("highscores.txt"));
+	/**
+	 * Returns how many rows the current block can fall before it lands, or 0 if there isn't one.
+	 * The ghost of the block (where it would land) is the block moved down this far.
+	 * Blocks of one of the shapes find this from the top of each column they are in (see Board.getDropY),
+	 * without moving down a row at a time.
+	 */
+	public int getDropDistance(){
+		if(currentBlock == null){ return 0; }
+		if(currentBlock.getRotation() != -1){
+			int originY = currentBlock.getOriginY();
+			return board.getDropY(currentBlock.getBlockType()-1, currentBlock.getRotation(), currentBlock.getOriginX(), originY) - originY;
+		}
 
-				for(int j = 0; j < 10; j++){
-					p.print(highscores[j] + " ");
+		// Otherwise, move each of its tiles down until one of them would hit something
+		int[] xPositions = currentBlock.getXPositions();
+		int[] yPositions = currentBlock.getYPositions();
+		for(int distance = 0; ; distance++){
+			for(int i = 0; i < currentBlock.getTileCount(); i++){
+				int checkYPosition = yPositions[i] + distance + 1;
+				if(checkYPosition >= board.getHeight() || board.isOccupied(xPositions[i], checkYPosition)){
+					return distance;
 				}
-
-				p.close();
 			}
 		}
-		catch(IOException e){
-			System.out.println("Could not read from OR write to highscores file. " + e);
-		}
-		// Afterwards, freeze the game
-		finally{
-			blockTimer.stop();
-			gameWindow.dispose();
+	}
+
+	/**
+	 * Ends the game, with the player losing.
+	 * Listeners are told so that they can save the score and return to the main screen.
+	 */
+	public void loseGame(){
+		// The game can only be lost once
+		if(isOver){ return; }
+		isOver = true;
+
+		for(int i = 0; i < listeners.size(); i++){
+			listeners.get(i).gameLost(this);
 		}
 	}
 
@@ -315,38 +499,31 @@ public class Game {
 	 * Removes the lines and lowers all blocks above it if any are found.
 	 */
 	public void checkForTetris(){
-		int numTetrises = 0;
-		// Scroll through all rows in the gameplay area
-		outerloop:
-		for(int i = Game.VERTICAL_TILES-1; i >= 0; i--){
-			// Scroll through all tiles in the row, continuing the outer loop if one isn't full
-			for(int j = 0; j < Game.HORIZONTAL_TILES; j++){
-				if(tiles[j][i] == 0){
-					continue outerloop;
-				}
-			}
-			// If all tiles are occupied,
-			// Remove all tiles on the row and remove the references to them in their respective blocks
-			for(int j = 0; j < Game.HORIZONTAL_TILES; j++){
-				tiles[j][i] = 0;
-			}
-			// Drop all tiles above them down by one
-			shiftTilesDown(i);
-			// Increment the number of tetrises gotten this turn
-			numTetrises++;
-			// And start from the beginning again
-			i = Game.VERTICAL_TILES;
-			// Check for infinite loops
-			if(numTetrises > Game.VERTICAL_TILES){
-				throw new IllegalStateException("Infinite (or very long) loop encountered when checking for tetrises.");
-			}
-		}
+		checkForTetris(0, board.getHeight()-1);
+	}
+
+	/**
+	 * Checks the given rows (inclusive) of the gameplay area for any tetrises (full lines).
+	 * Removes the lines and lowers all blocks above it if any are found.
+	 * Any rows which have changed since the last check must be included.
+	 * @param topRow The highest row to check
+	 * @param bottomRow The lowest row to check
+	 */
+	public void checkForTetris(int topRow, int bottomRow){
+		// Remove every full line at once, dropping the rows above them down in the same pass
+		int stackTop = board.getStackTop();
+		int numTetrises = board.clearFullRows(topRow, bottomRow);
+		if(numTetrises == 0){ return; }
+		linesCleared += numTetrises;
+		// Every row from the top of the stack down to the lowest line has moved
+		fireTilesChanged(stackTop, bottomRow);
 
 		// 4 is the maximum number of cleared lines you can have at once.
 		if(numTetrises > 4){ numTetrises = 4; }
 
 		// Add to the score:
-		int tempScore = (int)(numTetrises * TETRIS_SCORE * TETRIS_MULTIPLIERS[numTetrises] * (Math.log(level)+1));
+		// Four lines use the last multiplier, as the array has no entry past it
+		int tempScore = (int)(numTetrises * TETRIS_SCORE * TETRIS_MULTIPLIERS[Math.min(numTetrises, TETRIS_MULTIPLIERS.length-1)] * (Math.log(level)+1));
 		// We want the score to be a multiple of 10.
 		// Why? It makes it look better, clearly.
 		score += tempScore*10;
@@ -356,19 +533,9 @@ public class Game {
 	 * Shifts all tiles *above a given line* down by one
 	 * @param y The line above which to shift all tiles down
 	 */
-	private void shiftTilesDown(int y){
-		// Scroll through the rows in reverse order (up vertically) so as
-		// not to override rows which we want to drop down in future iterations
-		for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
-			for(int j = y-1; j >= 0; j--){
-				// If a tile isn't empty,
-				if(tiles[i][j] != 0){
-					// Shift it down
-					tiles[i][j+1] = tiles[i][j];
-					tiles[i][j] = 0;
-				}
-			}
-		}
+	void shiftTilesDown(int y){
+		// Every row above moves down as a whole, so there's no need to look at individual tiles
+		board.shiftRowsDown(y);
 	}
 
 	/**
@@ -376,16 +543,23 @@ public class Game {
 	 * @param block The block to be checked
 	 * @return Whether or not the fall is valid (true for valid)
 	 */
-	private boolean checkValidFall(Block block){
+	boolean checkValidFall(Block block){
+		// Blocks of one of the shapes can check all of their tiles at once
+		if(block.getRotation() != -1){
+			return shapeFits(block.getBlockType()-1, block.getRotation(), block.getOriginX(), block.getOriginY()+1);
+		}
+
 		// Check that there is no block below it
 
 		// For every point in the block,
-		for(int k = 0; k < block.getXPositions().length; k++){
+		int[] xPositions = block.getXPositions();
+		int[] yPositions = block.getYPositions();
+		for(int k = 0; k < block.getTileCount(); k++){
 			// Get the position to check (which is one down from the current position)
-			int checkXPosition = block.getXPositions()[k];
-			int checkYPosition = block.getYPositions()[k] + 1;
+			int checkXPosition = xPositions[k];
+			int checkYPosition = yPositions[k] + 1;
 			// Check if it's at the bottom of the screen
-			if(checkYPosition >= VERTICAL_TILES){
+			if(checkYPosition >= board.getHeight()){
 				return false;
 			}
 			// If this point is above the screen, it must be able to fall
@@ -393,7 +567,7 @@ public class Game {
 				continue;
 			}
 			// Check it against the tile entry for that position
-			if( tiles[checkXPosition][checkYPosition] != 0 && !block.containsPos(checkXPosition,checkYPosition) ){
+			if( board.isOccupied(checkXPosition, checkYPosition) && !block.containsPos(checkXPosition,checkYPosition) ){
 				return false;
 			}
 		}
@@ -413,7 +587,7 @@ public class Game {
 		// Scroll through tiles and make sure they are 0.
 		for(int i = 0; i < x.length; i++){
 			// If any tile is full, return false
-			if(tiles[ x[i] ][ y[i] ] != 0){
+			if(board.isOccupied(x[i], y[i])){
 				return false;
 			}
 		}
@@ -439,6 +613,24 @@ public class Game {
 		currentBlock = new Block(x, y, originX, originY, blockType);
 	}
 
+	/**
+	 * Creates a new block of one of the block shapes in its initial rotation.
+	 *
+	 * @param blockType The type of the block; its shape is BLOCK_X_POSITIONS[blockType-1]
+	 * @param originX The central x position.
+	 * @param originY The central y position.
+	 */
+	public void newBlock(int blockType, int originX, int originY){
+		if(spareBlock != null){
+			currentBlock = spareBlock;
+			spareBlock = null;
+			currentBlock.reset(blockType, originX, originY);
+		}
+		else{
+			currentBlock = new Block(blockType, originX, originY);
+		}
+	}
+
 	/**
 	 * Returns the current block
 	 */
@@ -446,6 +638,27 @@ public class Game {
 		return currentBlock;
 	}
 
+	/**
+	 * Returns the amount of tiles across the game area
+	 */
+	public int getWidth(){
+		return board.getWidth();
+	}
+
+	/**
+	 * Returns the amount of tiles down the game area
+	 */
+	public int getHeight(){
+		return board.getHeight();
+	}
+
+	/**
+	 * Returns the tiles of the game area
+	 */
+	Board getBoard(){
+		return board;
+	}
+
 	/**
 	 * Attempts to empty a given list of tiles.
 	 *
@@ -456,23 +669,35 @@ public class Game {
 		// Set all of the given tiles to 0
 		for(int i = 0; i < x.length; i++){
 			for(int j = 0; j < y.length; j++){
-				tiles[i][j] = 0;
+				board.setTileValue(i, j, 0);
 			}
 		}
+		fireTilesChanged(0, y.length-1);
 	}
 
 	/**
 	 * Gets the value of a certain tile
 	 */
 	public int getTileValue(int x, int y){
-		return tiles[x][y];
+		return board.getTileValue(x, y);
+	}
+
+	/**
+	 * Tells listeners that the given rows (inclusive) of the game area have changed
+	 */
+	private void fireTilesChanged(int topRow, int bottomRow){
+		for(int i = 0; i < listeners.size(); i++){
+			listeners.get(i).tilesChanged(this, topRow, bottomRow);
+		}
 	}
 
 	/**
-	 * Redraws the game
+	 * Tells listeners that the game has changed, so that it can be redrawn
 	 */
 	public void redraw(){
-		gameWindow.redraw();
+		for(int i = 0; i < listeners.size(); i++){
+			listeners.get(i).gameChanged(this);
+		}
 	}
 
 	/**
@@ -523,6 +748,41 @@ public class Game {
 		return level;
 	}
 
+	/**
+	 * Returns the level on which the game started
+	 */
+	public int getInitialLevel(){
+		return initialLevel;
+	}
+
+	/**
+	 * Returns the queue of the next blocks to drop, which can be peeked at to see what is coming
+	 */
+	public PieceQueue getNextBlocks(){
+		return nextBlocks;
+	}
+
+	/**
+	 * Returns the seed which the order of the blocks comes from
+	 */
+	public long getSeed(){
+		return seed;
+	}
+
+	/**
+	 * Returns the total amount of lines cleared so far
+	 */
+	public int getLinesCleared(){
+		return linesCleared;
+	}
+
+	/**
+	 * Returns the total amount of blocks made so far, including the one which is falling
+	 */
+	public int getBlockCount(){
+		return blockCount;
+	}
+
 	/**
 	 * Sets the level to a given number
 	 */
@@ -551,22 +811,30 @@ public class Game {
 	 * Checks to see if the current block can move horizontally
 	 * @param isRight True if checking to see if it can move right, false if checking to see if it can move left
 	 */
-	private boolean isValidHorizontal(boolean isRight){
+	boolean isValidHorizontal(boolean isRight){
+		// Blocks of one of the shapes can check all of their tiles at once
+		if(currentBlock.getRotation() != -1){
+			int checkOriginX = isRight ? currentBlock.getOriginX()+1 : currentBlock.getOriginX()-1;
+			return shapeFits(currentBlock.getBlockType()-1, currentBlock.getRotation(), checkOriginX, currentBlock.getOriginY());
+		}
+
 		// Check that there is no block to the right/left of it (otherwise don't shift)
 		// For every point in the block, check to see if it's on the right/left of the screen
-		for(int k = 0; k < currentBlock.getXPositions().length; k++){
+		int[] xPositions = currentBlock.getXPositions();
+		int[] yPositions = currentBlock.getYPositions();
+		for(int k = 0; k < currentBlock.getTileCount(); k++){
 			int checkXPosition;
-			if(isRight){ checkXPosition = currentBlock.getXPositions()[k] + 1; }
-			else       { checkXPosition = currentBlock.getXPositions()[k] - 1; }
-			int checkYPosition = currentBlock.getYPositions()[k];
-			if(checkXPosition >= HORIZONTAL_TILES || checkXPosition < 0){
+			if(isRight){ checkXPosition = xPositions[k] + 1; }
+			else       { checkXPosition = xPositions[k] - 1; }
+			int checkYPosition = yPositions[k];
+			if(checkXPosition >= board.getWidth() || checkXPosition < 0){
 				return false;
 			}
 			// If it's above the screen and not outside the boundaries, it must be able to move horizontally
 			if(checkYPosition < 0){
 				continue;
 			}
-			if( tiles[checkXPosition][checkYPosition] != 0 && !currentBlock.containsPos(checkXPosition, checkYPosition) ){
+			if( board.isOccupied(checkXPosition, checkYPosition) && !currentBlock.containsPos(checkXPosition, checkYPosition) ){
 				return false;
 			}
 		}
@@ -579,7 +847,6 @@ public class Game {
 	 */
 	public void rushDown(){
 		isDownButton = true;
-		resetBlockTimer();
 	}
 	/**
 	 * Causes the current block to halt moving down much faster.
@@ -587,7 +854,6 @@ public class Game {
 	 */
 	public void haltRushDown(){
 		isDownButton = false;
-		resetBlockTimer();
 	}
 
 	/**
@@ -606,15 +872,29 @@ public class Game {
 	 * @param isClockwise Direction of rotation (true for clockwise)
 	 * @return Whether the block can turn or not
 	 */
-	private boolean pieceCanTurn(boolean isClockwise){
+	boolean pieceCanTurn(boolean isClockwise){
 		if(currentBlock == null){ return false; }
 
-		for(int i = 0; i < currentBlock.getXPositions().length; i++){
+		// Blocks of one of the shapes can look up where their tiles would be
+		if(currentBlock.getRotation() != -1){
+			int shape = currentBlock.getBlockType()-1;
+			int rotation = BlockRotations.turn(currentBlock.getRotation(), isClockwise);
+			// The turned block can't be above the top of the game area either
+			if(currentBlock.getOriginY() + BlockRotations.MIN_Y[shape][rotation] < 0){
+				return false;
+			}
+			return shapeFits(shape, rotation, currentBlock.getOriginX(), currentBlock.getOriginY());
+		}
+
+		// Otherwise, turn each of its tiles around the origin
+		int[] xPositions = currentBlock.getXPositions();
+		int[] yPositions = currentBlock.getYPositions();
+		for(int i = 0; i < currentBlock.getTileCount(); i++){
 			int testY;
 			int testX;
 			// For each tile contained within the block, get its distance from the origin
-			int xDist = currentBlock.getXPositions()[i] - currentBlock.getOriginX();
-			int yDist = currentBlock.getYPositions()[i] - currentBlock.getOriginY();
+			int xDist = xPositions[i] - currentBlock.getOriginX();
+			int yDist = yPositions[i] - currentBlock.getOriginY();
 
 			// Find out where the new tile would be located
 			if(isClockwise){
@@ -628,16 +908,25 @@ public class Game {
 
 			// Check the tile against
 			// 1. Vertical game area boundaries
-			if(testY < 0 || testY >= Game.VERTICAL_TILES){
+			if(testY < 0 || testY >= board.getHeight()){
 				return false;
 			}
 			// 2. Horizontal game area boundaries
-			if(testX < 0 || testX >= Game.HORIZONTAL_TILES){
+			if(testX < 0 || testX >= board.getWidth()){
 				return false;
 			}
 			// 3. Other tiles
-			if(tiles[testX][testY] != 0){ return false; }
+			if(board.isOccupied(testX, testY)){ return false; }
 		}
 		return true;
 	}
+
+	/**
+	 * Checks to see whether a block of the given shape and rotation would fit with its origin at the given position;
+	 * that is, whether it would be within the sides and bottom of the game area without overlapping any tiles.
+	 * Tiles above the top of the game area are always allowed.
+	 */
+	private boolean shapeFits(int shape, int rotation, int originX, int originY){
+		return board.fits(shape, rotation, originX, originY);
+	}
 }
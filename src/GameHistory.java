@@ -0,0 +1,407 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Every finished game, kept on disk; unlike the highscores list, nothing is ever thrown away.
+ *
+ * Games are appended to a log file as fixed size GameRecords, so the nth game can be read
+ * straight from its position. Alongside the log, each difficulty has an index file holding
+ * its amount of games, its highest scores and a histogram of all of its scores, so asking for
+ * the top scores or a percentile of a difficulty doesn't need to read the log at all.
+ *
+ * The histogram has 16 buckets for every power of 2, so percentiles are accurate to within about 3%.
+ * An index only catches up with the log when its difficulty is appended to or asked about,
+ * which also means that an index which is missing or behind repairs itself. An index is marked
+ * while records are being added to it, so one left half updated by a crash is rebuilt from the log
+ * rather than having the same records added to it again.
+ *
+ * @author Robert Campbell
+ */
+public class GameHistory {
+	// The file that the history is normally kept in
+	public static final String HISTORY_FILE = "history.dat";
+	// The amount of highest scores kept in each index
+	public static final int TOP_SCORES_KEPT = 100;
+
+	private static final int LOG_MAGIC = 0x54484953;
+	private static final int INDEX_MAGIC = 0x54494458;
+	private static final int VERSION = 1;
+
+	// The log starts with its magic number and version, then the records
+	private static final int LOG_HEADER_SIZE = 16;
+
+	// The histogram has a bucket for scores below 1, then SUB_BUCKETS buckets for each power of 2 up to 2^EXPONENTS
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int EXPONENTS = 64;
+	private static final int BUCKETS = 1 + EXPONENTS * SUB_BUCKETS;
+
+	// The layout of an index file: a header, the top scores (each a score and a record number), then the histogram
+	private static final int INDEX_MAGIC_POSITION = 0;
+	private static final int INDEX_VERSION_POSITION = 4;
+	private static final int INDEX_RECORDS_SEEN_POSITION = 8;
+	private static final int INDEX_GAME_COUNT_POSITION = 16;
+	private static final int INDEX_TOP_COUNT_POSITION = 24;
+	// Not 0 while records are being added to the index
+	private static final int INDEX_UPDATING_POSITION = 28;
+	private static final int INDEX_TOP_SCORES_POSITION = 32;
+	private static final int TOP_SCORE_SIZE = 16;
+	private static final int INDEX_HISTOGRAM_POSITION = INDEX_TOP_SCORES_POSITION + TOP_SCORES_KEPT * TOP_SCORE_SIZE;
+	private static final int INDEX_SIZE = INDEX_HISTOGRAM_POSITION + BUCKETS * 8;
+
+	// The amount of records read from the log at once when catching an index up
+	private static final int RECORDS_PER_READ = 1024;
+
+	// File locks are held by the whole process, so threads in this process also have to take turns
+	private static final Object PROCESS_LOCK = new Object();
+
+	private Path logFile;
+	private FileChannel log;
+	// The index of each difficulty which has been used so far
+	private Map<Integer, MappedByteBuffer> indexes = new HashMap<Integer, MappedByteBuffer>();
+	// Used to read and write records
+	private ByteBuffer recordBuffer = ByteBuffer.allocate(GameRecord.RECORD_SIZE * RECORDS_PER_READ);
+
+	/**
+	 * Constructor; opens the history in the given log file, creating it if it doesn't exist
+	 */
+	public GameHistory(String fileName) throws IOException {
+		logFile = Paths.get(fileName).toAbsolutePath();
+		log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		synchronized(PROCESS_LOCK){
+			FileLock lock = log.lock();
+			try{
+				ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+				if(log.size() < LOG_HEADER_SIZE){
+					header.putInt(LOG_MAGIC).putInt(VERSION);
+					header.clear();
+					writeFully(header, 0);
+				}
+				else{
+					readFully(header, 0);
+					header.flip();
+					if(header.getInt() != LOG_MAGIC || header.getInt() != VERSION){
+						throw new IOException(logFile + " is not a game history file this version can read.");
+					}
+				}
+			}
+			finally{
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Adds the given game to the end of the history
+	 * @return The number of the game's record
+	 */
+	public long append(GameRecord record) throws IOException {
+		synchronized(PROCESS_LOCK){
+			FileLock lock = log.lock();
+			try{
+				// Anything after the last whole record was left by a crash, and is written over
+				long recordNumber = getRecordCountUnlocked();
+				recordBuffer.clear();
+				record.write(recordBuffer);
+				recordBuffer.flip();
+				writeFully(recordBuffer, getRecordPosition(recordNumber));
+				// Keep the difficulty's index up to date; other indexes catch up when they are next used
+				updateIndex(record.getDifficulty());
+				return recordNumber;
+			}
+			finally{
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the amount of games in the history
+	 */
+	public long getRecordCount() throws IOException {
+		synchronized(PROCESS_LOCK){
+			return getRecordCountUnlocked();
+		}
+	}
+
+	/**
+	 * Returns the given game's record
+	 * @param recordNumber The number of the record, from 0 for the first game
+	 */
+	public GameRecord getRecord(long recordNumber) throws IOException {
+		synchronized(PROCESS_LOCK){
+			if(recordNumber < 0 || recordNumber >= getRecordCountUnlocked()){
+				throw new IndexOutOfBoundsException("There is no game record " + recordNumber + ".");
+			}
+			recordBuffer.clear();
+			recordBuffer.limit(GameRecord.RECORD_SIZE);
+			readFully(recordBuffer, getRecordPosition(recordNumber));
+			recordBuffer.flip();
+			return GameRecord.read(recordBuffer);
+		}
+	}
+
+	/**
+	 * Returns the amount of games played on the given difficulty
+	 */
+	public long getGameCount(int difficulty) throws IOException {
+		synchronized(PROCESS_LOCK){
+			return getUpdatedIndex(difficulty).getLong(INDEX_GAME_COUNT_POSITION);
+		}
+	}
+
+	/**
+	 * Returns the records of the games with the highest scores on the given difficulty, highest first.
+	 * Only the first TOP_SCORES_KEPT can be found without reading the whole log.
+	 * @param count The most records to return
+	 */
+	public GameRecord[] getTopScores(int difficulty, int count) throws IOException {
+		if(count < 0){
+			throw new IllegalArgumentException("Amount of top scores must be at least 0, was " + count + ".");
+		}
+		synchronized(PROCESS_LOCK){
+			if(count > TOP_SCORES_KEPT){
+				return scanTopScores(difficulty, count);
+			}
+			MappedByteBuffer index = getUpdatedIndex(difficulty);
+			int found = Math.min(count, index.getInt(INDEX_TOP_COUNT_POSITION));
+			GameRecord[] records = new GameRecord[found];
+			for(int i = 0; i < found; i++){
+				records[i] = getRecord(index.getLong(INDEX_TOP_SCORES_POSITION + i * TOP_SCORE_SIZE + 8));
+			}
+			return records;
+		}
+	}
+
+	/**
+	 * Returns (approximately) the score which the given percentage of games on the given difficulty scored at most,
+	 * or NaN if no games have been played on it
+	 * @param percentile The percentage, from 0 to 100
+	 */
+	public double getPercentile(int difficulty, double percentile) throws IOException {
+		if(percentile < 0 || percentile > 100){
+			throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile + ".");
+		}
+		synchronized(PROCESS_LOCK){
+			MappedByteBuffer index = getUpdatedIndex(difficulty);
+			long gameCount = index.getLong(INDEX_GAME_COUNT_POSITION);
+			if(gameCount == 0){
+				return Double.NaN;
+			}
+			// The number of the game (in order of score, from 1) whose score we're looking for
+			long target = Math.max((long)Math.ceil(percentile / 100 * gameCount), 1);
+			long seen = 0;
+			for(int bucket = 0; bucket < BUCKETS; bucket++){
+				seen += index.getLong(INDEX_HISTOGRAM_POSITION + bucket * 8);
+				if(seen >= target){
+					return getBucketValue(bucket);
+				}
+			}
+			return getBucketValue(BUCKETS-1);
+		}
+	}
+
+	/**
+	 * Writes any index changes to disk and closes the history
+	 */
+	public void close() throws IOException {
+		synchronized(PROCESS_LOCK){
+			for(MappedByteBuffer index : indexes.values()){
+				index.force();
+			}
+			indexes.clear();
+			log.close();
+		}
+	}
+
+	/**
+	 * Returns the amount of whole records in the log
+	 */
+	private long getRecordCountUnlocked() throws IOException {
+		return Math.max(log.size() - LOG_HEADER_SIZE, 0) / GameRecord.RECORD_SIZE;
+	}
+
+	/**
+	 * Returns the position of the given record in the log
+	 */
+	private static long getRecordPosition(long recordNumber){
+		return LOG_HEADER_SIZE + recordNumber * GameRecord.RECORD_SIZE;
+	}
+
+	/**
+	 * Returns the index of the given difficulty, after catching it up with the log
+	 */
+	private MappedByteBuffer getUpdatedIndex(int difficulty) throws IOException {
+		FileLock lock = log.lock();
+		try{
+			return updateIndex(difficulty);
+		}
+		finally{
+			lock.release();
+		}
+	}
+
+	/**
+	 * Adds every record which the given difficulty's index hasn't seen yet to it.
+	 * The log must be locked.
+	 */
+	private MappedByteBuffer updateIndex(int difficulty) throws IOException {
+		MappedByteBuffer index = openIndex(difficulty);
+		long recordCount = getRecordCountUnlocked();
+		long recordNumber = index.getLong(INDEX_RECORDS_SEEN_POSITION);
+		if(recordNumber >= recordCount){
+			return index;
+		}
+		// The records seen are only moved on after a whole read, so if this stops part way through, the index has to be rebuilt
+		index.putInt(INDEX_UPDATING_POSITION, 1);
+		while(recordNumber < recordCount){
+			int records = (int)Math.min(RECORDS_PER_READ, recordCount - recordNumber);
+			recordBuffer.clear();
+			recordBuffer.limit(records * GameRecord.RECORD_SIZE);
+			readFully(recordBuffer, getRecordPosition(recordNumber));
+			recordBuffer.flip();
+			for(int i = 0; i < records; i++){
+				GameRecord record = GameRecord.read(recordBuffer);
+				if(record.getDifficulty() == difficulty){
+					addToIndex(index, record.getScore(), recordNumber + i);
+				}
+			}
+			recordNumber += records;
+			// Only mark the records as seen once they have been added
+			index.putLong(INDEX_RECORDS_SEEN_POSITION, recordNumber);
+		}
+		index.putInt(INDEX_UPDATING_POSITION, 0);
+		return index;
+	}
+
+	/**
+	 * Adds a game with the given score to the given index
+	 */
+	private static void addToIndex(MappedByteBuffer index, double score, long recordNumber){
+		index.putLong(INDEX_GAME_COUNT_POSITION, index.getLong(INDEX_GAME_COUNT_POSITION) + 1);
+
+		int bucketPosition = INDEX_HISTOGRAM_POSITION + getBucket(score) * 8;
+		index.putLong(bucketPosition, index.getLong(bucketPosition) + 1);
+
+		// Find where the score goes in the top scores, if it goes in at all
+		int topCount = index.getInt(INDEX_TOP_COUNT_POSITION);
+		int place = topCount;
+		while(place > 0 && score > index.getDouble(INDEX_TOP_SCORES_POSITION + (place-1) * TOP_SCORE_SIZE)){
+			place--;
+		}
+		if(place >= TOP_SCORES_KEPT){
+			return;
+		}
+		// Move the lower scores down by one (discarding the last one if the list is full)
+		for(int i = Math.min(topCount, TOP_SCORES_KEPT-1); i > place; i--){
+			int to = INDEX_TOP_SCORES_POSITION + i * TOP_SCORE_SIZE;
+			index.putDouble(to, index.getDouble(to - TOP_SCORE_SIZE));
+			index.putLong(to + 8, index.getLong(to - TOP_SCORE_SIZE + 8));
+		}
+		index.putDouble(INDEX_TOP_SCORES_POSITION + place * TOP_SCORE_SIZE, score);
+		index.putLong(INDEX_TOP_SCORES_POSITION + place * TOP_SCORE_SIZE + 8, recordNumber);
+		index.putInt(INDEX_TOP_COUNT_POSITION, Math.min(topCount+1, TOP_SCORES_KEPT));
+	}
+
+	/**
+	 * Opens (and maps into memory) the index of the given difficulty, creating it if it doesn't exist
+	 */
+	private MappedByteBuffer openIndex(int difficulty) throws IOException {
+		MappedByteBuffer index = indexes.get(difficulty);
+		if(index != null){
+			return index;
+		}
+		Path indexFile = logFile.resolveSibling(logFile.getFileName() + ".d" + difficulty + ".idx");
+		FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try{
+			// Mapping the file stays valid after the channel is closed
+			index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_SIZE);
+		}
+		finally{
+			channel.close();
+		}
+		if(index.getInt(INDEX_MAGIC_POSITION) != INDEX_MAGIC || index.getInt(INDEX_VERSION_POSITION) != VERSION
+				|| index.getInt(INDEX_UPDATING_POSITION) != 0){
+			// A new (or unreadable, or half updated) index is rebuilt from the start of the log
+			for(int i = 0; i < INDEX_SIZE; i += 8){
+				index.putLong(i, 0);
+			}
+			index.putInt(INDEX_MAGIC_POSITION, INDEX_MAGIC);
+			index.putInt(INDEX_VERSION_POSITION, VERSION);
+		}
+		indexes.put(difficulty, index);
+		return index;
+	}
+
+	/**
+	 * Finds the records with the highest scores on the given difficulty by reading the whole log
+	 */
+	private GameRecord[] scanTopScores(int difficulty, int count) throws IOException {
+		ArrayList<GameRecord> records = new ArrayList<GameRecord>();
+		long recordCount = getRecordCountUnlocked();
+		for(long recordNumber = 0; recordNumber < recordCount; recordNumber++){
+			GameRecord record = getRecord(recordNumber);
+			if(record.getDifficulty() == difficulty){
+				records.add(record);
+			}
+		}
+		Collections.sort(records, new Comparator<GameRecord>(){
+			public int compare(GameRecord a, GameRecord b){
+				return Double.compare(b.getScore(), a.getScore());
+			}
+		});
+		return records.subList(0, Math.min(count, records.size())).toArray(new GameRecord[0]);
+	}
+
+	/**
+	 * Returns the histogram bucket that the given score is counted in
+	 */
+	static int getBucket(double score){
+		if(!(score >= 1)){
+			return 0;
+		}
+		int exponent = Math.min(Math.getExponent(score), EXPONENTS-1);
+		// The highest bits of the score after its leading 1 choose the bucket within its power of 2
+		int subBucket = (int)((Double.doubleToRawLongBits(score) >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKETS-1));
+		return 1 + exponent * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the score in the middle of the given histogram bucket
+	 */
+	static double getBucketValue(int bucket){
+		if(bucket == 0){
+			return 0;
+		}
+		int exponent = (bucket-1) / SUB_BUCKETS;
+		int subBucket = (bucket-1) % SUB_BUCKETS;
+		return Math.scalb(1 + (subBucket + 0.5) / SUB_BUCKETS, exponent);
+	}
+
+	/**
+	 * Reads from the log at the given position until the buffer is full
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()){
+			int read = log.read(buffer, position);
+			if(read < 0){
+				throw new IOException("Unexpected end of " + logFile + ".");
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Writes the whole buffer to the log at the given position
+	 */
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()){
+			position += log.write(buffer, position);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+
+/**
+ * Something which wants to know when a game of Tetris changes or ends;
+ * for example, the window it is being drawn in.
+ *
+ * @author Robert Campbell
+ */
+public interface GameListener {
+	/**
+	 * Called whenever the tiles, the current block or the score of the game change
+	 */
+	public void gameChanged(Game game);
+
+	/**
+	 * Called whenever tiles of the game area change, such as when a block is placed or lines are cleared.
+	 * Only the given rows (inclusive) have changed. gameChanged is called afterwards as well.
+	 */
+	public void tilesChanged(Game game, int topRow, int bottomRow);
+
+	/**
+	 * Called whenever an action is applied to the game (see Game.apply), before it takes effect
+	 */
+	public void actionApplied(Game game, int action);
+
+	/**
+	 * Called once, when the game ends
+	 */
+	public void gameLost(Game game);
+}
@@ -0,0 +1,122 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The result of one finished game, as kept in the GameHistory.
+ * Every record takes up the same amount of space (RECORD_SIZE bytes) when written.
+ *
+ * @author Robert Campbell
+ */
+public class GameRecord {
+	// The amount of bytes taken up by a written record
+	public static final int RECORD_SIZE = 40;
+
+	private double score;
+	private int difficulty;
+	private int initialLevel;
+	private int finalLevel;
+	private int linesCleared;
+	private long durationMillis;
+	// When the game ended, in milliseconds since the epoch
+	private long endTime;
+
+	/**
+	 * Constructor; creates a new record with the given results
+	 */
+	public GameRecord(double score, int difficulty, int initialLevel, int finalLevel, int linesCleared, long durationMillis, long endTime){
+		this.score = score;
+		this.difficulty = difficulty;
+		this.initialLevel = initialLevel;
+		this.finalLevel = finalLevel;
+		this.linesCleared = linesCleared;
+		this.durationMillis = durationMillis;
+		this.endTime = endTime;
+	}
+
+	/**
+	 * Creates a record of the given finished game, which took the given amount of time and ended now
+	 */
+	public static GameRecord of(Game game, long durationMillis){
+		return new GameRecord(game.getScore(), game.getDifficulty(), game.getInitialLevel(), game.getLevel(), game.getLinesCleared(), durationMillis, System.currentTimeMillis());
+	}
+
+	/**
+	 * Writes this record at the buffer's position, moving the position on by RECORD_SIZE
+	 */
+	public void write(ByteBuffer buffer){
+		buffer.putDouble(score);
+		buffer.putLong(durationMillis);
+		buffer.putLong(endTime);
+		buffer.putInt(difficulty);
+		buffer.putInt(initialLevel);
+		buffer.putInt(finalLevel);
+		buffer.putInt(linesCleared);
+	}
+
+	/**
+	 * Reads a record from the buffer's position, moving the position on by RECORD_SIZE
+	 */
+	public static GameRecord read(ByteBuffer buffer){
+		double score = buffer.getDouble();
+		long durationMillis = buffer.getLong();
+		long endTime = buffer.getLong();
+		int difficulty = buffer.getInt();
+		int initialLevel = buffer.getInt();
+		int finalLevel = buffer.getInt();
+		int linesCleared = buffer.getInt();
+		return new GameRecord(score, difficulty, initialLevel, finalLevel, linesCleared, durationMillis, endTime);
+	}
+
+	/**
+	 * Returns the final score
+	 */
+	public double getScore(){
+		return score;
+	}
+
+	/**
+	 * Returns the difficulty the game was played on
+	 */
+	public int getDifficulty(){
+		return difficulty;
+	}
+
+	/**
+	 * Returns the level on which the game started
+	 */
+	public int getInitialLevel(){
+		return initialLevel;
+	}
+
+	/**
+	 * Returns the level the game ended on
+	 */
+	public int getFinalLevel(){
+		return finalLevel;
+	}
+
+	/**
+	 * Returns the total amount of lines cleared
+	 */
+	public int getLinesCleared(){
+		return linesCleared;
+	}
+
+	/**
+	 * Returns how long the game lasted, in milliseconds
+	 */
+	public long getDurationMillis(){
+		return durationMillis;
+	}
+
+	/**
+	 * Returns when the game ended, in milliseconds since the epoch
+	 */
+	public long getEndTime(){
+		return endTime;
+	}
+
+	public String toString(){
+		return "GameRecord[score=" + score + ", difficulty=" + difficulty + ", initialLevel=" + initialLevel + ", finalLevel=" + finalLevel
+				+ ", linesCleared=" + linesCleared + ", durationMillis=" + durationMillis + ", endTime=" + endTime + "]";
+	}
+}
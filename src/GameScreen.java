@@ -1,6 +1,8 @@
 import java.nio.*;
+import java.util.Arrays;
 import java.awt.*;
 
+import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
 import org.lwjgl.system.MemoryUtil;
@@ -26,6 +28,32 @@ public class GameScreen{
 	public static Color BACKGROUND_COLOR = Color.WHITE;
 	public static Color BORDER_COLOR = Color.BLACK;
 
+	// Every tile is drawn from one buffer of vertices, each of which is an x, y position followed by an r, g, b color.
+	// The filled tiles come first as quads, followed by their borders as lines.
+	private static final int FLOATS_PER_VERTEX = 5;
+	private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;
+	private static final int FILL_VERTICES_PER_TILE = 4;
+	private static final int BORDER_VERTICES_PER_TILE = 8;
+	private static final int FILL_VERTEX_COUNT = Game.HORIZONTAL_TILES * Game.VERTICAL_TILES * FILL_VERTICES_PER_TILE;
+	private static final int BORDER_VERTEX_COUNT = Game.HORIZONTAL_TILES * Game.VERTICAL_TILES * BORDER_VERTICES_PER_TILE;
+
+	// The vertices which are drawn every frame; only the fill colors change between frames
+	private FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer((FILL_VERTEX_COUNT + BORDER_VERTEX_COUNT) * FLOATS_PER_VERTEX);
+	// Used to get the components of a color without making a new array
+	private float[] colorComponents = new float[3];
+	// The fill color components for each block type, with the background color for type 0
+	private float[][] typeColorComponents = new float[Game.BLOCK_COLORS.length+1][];
+
+	// The block type which each tile is currently drawn as in the vertex buffer, or -1 if it hasn't been drawn
+	private int[] drawnTypes = new int[Game.HORIZONTAL_TILES * Game.VERTICAL_TILES];
+	// The rows of the game area which have changed since they were last drawn; none have changed if dirtyTop > dirtyBottom
+	private int dirtyTop = 0;
+	private int dirtyBottom = Game.VERTICAL_TILES-1;
+	// The tiles which the current block was drawn over last frame
+	private int[] drawnBlockX = new int[0];
+	private int[] drawnBlockY = new int[0];
+	private int drawnBlockTileCount = 0;
+
 	ByteBuffer vidMode;
 
 	private long glWindow;
@@ -39,17 +67,77 @@ public class GameScreen{
 	private final int KEY_ROTATE_RIGHT = GLFW_KEY_E;
 	private final int KEY_ROTATE_LEFT = GLFW_KEY_Q;
 	private final int KEY_END_GAME = GLFW_KEY_ESCAPE;
-	// The key that has been pressed down, indicating the key action that should be taken
-	int currentAction = 0;
-	// Whether the key for the current action is still down
-	boolean currentActionKey = false;
-	// Whether the current action has been completed at least once
-	boolean currentActionCompleted = false;
+	// The most key presses and releases which can wait to be handled at once
+	private static final int KEY_EVENT_CAPACITY = 256;
+	// Key presses and releases from the key callback, in the order they happened, waiting to be handled
+	private KeyEventQueue keyEvents = new KeyEventQueue(KEY_EVENT_CAPACITY);
+	// The movement or rotation key which is held down, which repeats every time the block falls; 0 if there isn't one
+	private int heldKey = 0;
 
 
 	public GameScreen(Game gameInstance){
 		this.gameInstance = gameInstance;
 		initialise();
+		initialiseVertices();
+	}
+
+	/**
+	 * Fills in the positions of every tile's vertices and the colors of their borders,
+	 * which don't change between frames
+	 */
+	private void initialiseVertices(){
+		typeColorComponents[0] = BACKGROUND_COLOR.getRGBColorComponents(null);
+		for(int i = 0; i < Game.BLOCK_COLORS.length; i++){
+			typeColorComponents[i+1] = Game.BLOCK_COLORS[i].getRGBColorComponents(null);
+		}
+		Arrays.fill(drawnTypes, -1);
+
+		BORDER_COLOR.getRGBColorComponents(colorComponents);
+		for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
+			for(int j = 0; j < Game.VERTICAL_TILES; j++){
+				// Translate the co-ordinates of the tile's corners to be appropriate for OpenGL
+				float tX = getFloatX(i*Game.TILE_SIZE);
+				float tY = getFloatY(j*Game.TILE_SIZE);
+				float tX2 = getFloatX((i+1)*Game.TILE_SIZE);
+				float tY2 = getFloatY((j+1)*Game.TILE_SIZE);
+
+				// The filled quad; its color is set when drawing
+				vertexBuffer.position(getFillVertex(i, j) * FLOATS_PER_VERTEX);
+				putVertex(tX, tY);
+				putVertex(tX, tY2);
+				putVertex(tX2, tY2);
+				putVertex(tX2, tY);
+
+				// And a line along each side of it
+				vertexBuffer.position((FILL_VERTEX_COUNT + getTileIndex(i, j) * BORDER_VERTICES_PER_TILE) * FLOATS_PER_VERTEX);
+				putVertex(tX, tY);   putVertex(tX, tY2);
+				putVertex(tX, tY2);  putVertex(tX2, tY2);
+				putVertex(tX2, tY2); putVertex(tX2, tY);
+				putVertex(tX2, tY);  putVertex(tX, tY);
+			}
+		}
+		vertexBuffer.clear();
+	}
+
+	/**
+	 * Puts a vertex with the given position and the color in colorComponents into the vertex buffer
+	 */
+	private void putVertex(float x, float y){
+		vertexBuffer.put(x).put(y).put(colorComponents);
+	}
+
+	/**
+	 * Returns the index of the given tile; tiles are stored one column after another
+	 */
+	private int getTileIndex(int x, int y){
+		return x * Game.VERTICAL_TILES + y;
+	}
+
+	/**
+	 * Returns the index of the first vertex of the given tile's filled quad
+	 */
+	private int getFillVertex(int x, int y){
+		return getTileIndex(x, y) * FILL_VERTICES_PER_TILE;
 	}
 
 	/**
@@ -74,18 +162,12 @@ public class GameScreen{
 		// Set up a key listener
 		glfwSetKeyCallback(glWindow, keyCallback = new GLFWKeyCallback(){
 			public void invoke(long window, int key, int scancode, int action, int mods){
-				// If a key has been pressed down,
-				if(action == GLFW_PRESS){
-					// Set the action to take
-					currentAction = key;
-					// Set that the key is currently pressed down
-					currentActionKey = true;
-					// Reset the completion status of the action
-					currentActionCompleted = false;
-				}
-				else if(action == GLFW_RELEASE){
-					// Set that the key is no longer pressed down
-					currentActionKey = false;
+				// Queue every press and release to be handled by the game loop;
+				// held keys are repeated by the game itself, so the system's repeats are ignored
+				if(action == GLFW_PRESS || action == GLFW_RELEASE){
+					if(!keyEvents.offer(key, action)){
+						System.err.println("Too many key events at once; ignoring key " + key + ".");
+					}
 				}
 			}
 
@@ -105,46 +187,91 @@ public class GameScreen{
 	}
 
 	/**
-	 * Checks for the queued key action and calls the required method based on it.
+	 * Handles every key press and release that has happened since this was last called, in order.
 	 */
-	public void doKeys(){
+	public void processKeys(){
 		// Make sure that the window shouldn't have been closed
-		if(glfwWindowShouldClose(glWindow) == GL_FALSE){
-			// If the key is no longer down and the action has already been done, don't do anything
-			if(!currentActionKey && currentActionCompleted){ currentAction = 0; }
-
-			// Otherwise, complete the appropriate action
-			switch(currentAction){
-			case KEY_MOVE_LEFT:
-				gameInstance.moveHorizontally(false);
-				break;
-			case KEY_MOVE_RIGHT:
-				gameInstance.moveHorizontally(true);
-				break;
-			case KEY_ROTATE_RIGHT:
-				gameInstance.turnCurrentPiece(true);
-				break;
-			case KEY_ROTATE_LEFT:
-				gameInstance.turnCurrentPiece(false);
-				break;
-			case KEY_MOVE_DOWN:
-				gameInstance.rushDown();
-				break;
-			case KEY_END_GAME:
-				gameInstance.loseGame();
-				dispose();
-				break;
-			default:
-				gameInstance.haltRushDown();
-				break;
+		if(glfwWindowShouldClose(glWindow) != GL_FALSE){
+			// Stop the game, as an action so that it is recorded in the replay
+			gameInstance.apply(Game.ACTION_QUIT);
+			return;
+		}
+
+		while(!keyEvents.isEmpty()){
+			int key = keyEvents.peekKey();
+			int action = keyEvents.peekAction();
+			keyEvents.remove();
+
+			if(action == GLFW_PRESS){
+				pressKey(key);
 			}
+			else{
+				releaseKey(key);
+			}
+		}
+	}
+
+	/**
+	 * Repeats the action of the movement or rotation key which is held down, if there is one.
+	 * Called every time the block falls.
+	 */
+	public void repeatHeldKeys(){
+		if(heldKey != 0){
+			gameInstance.apply(getKeyAction(heldKey));
+		}
+	}
 
-			// And change the completed flag to true (note that this flag is unimportant if currentActon == 0)
-			currentActionCompleted = true;
+	/**
+	 * Takes the appropriate action for a key which has just been pressed
+	 */
+	private void pressKey(int key){
+		switch(key){
+		case KEY_MOVE_LEFT:
+		case KEY_MOVE_RIGHT:
+		case KEY_ROTATE_RIGHT:
+		case KEY_ROTATE_LEFT:
+			gameInstance.apply(getKeyAction(key));
+			heldKey = key;
+			break;
+		case KEY_MOVE_DOWN:
+			gameInstance.apply(Game.ACTION_RUSH_DOWN);
+			break;
+		case KEY_END_GAME:
+			// Whatever is running the game will close this window once it has ended
+			gameInstance.apply(Game.ACTION_QUIT);
+			break;
+		default:
+			break;
 		}
-		else{
-			// Stop the game
-			gameInstance.loseGame();
+	}
+
+	/**
+	 * Takes the appropriate action for a key which has just been released
+	 */
+	private void releaseKey(int key){
+		if(key == heldKey){
+			heldKey = 0;
+		}
+		if(key == KEY_MOVE_DOWN){
+			gameInstance.apply(Game.ACTION_HALT_RUSH_DOWN);
+		}
+	}
+
+	/**
+	 * Returns the game action which a movement or rotation key performs
+	 */
+	private int getKeyAction(int key){
+		switch(key){
+		case KEY_MOVE_LEFT:
+			return Game.ACTION_MOVE_LEFT;
+		case KEY_MOVE_RIGHT:
+			return Game.ACTION_MOVE_RIGHT;
+		case KEY_ROTATE_RIGHT:
+			return Game.ACTION_TURN_CLOCKWISE;
+		case KEY_ROTATE_LEFT:
+			return Game.ACTION_TURN_ANTICLOCKWISE;
+		default:
+			throw new IllegalArgumentException("Key " + key + " is not a movement or rotation key.");
 		}
 	}
 
@@ -167,8 +294,8 @@ public class GameScreen{
 			glfwPollEvents();
 		}
 		else{
-			// Stop the game
-			gameInstance.loseGame();
+			// Stop the game, as an action so that it is recorded in the replay
+			gameInstance.apply(Game.ACTION_QUIT);
 		}
 	}
 
@@ -184,81 +311,85 @@ public class GameScreen{
 	 * Defines redrawing the game area
 	 */
 	private void redrawGameArea(){
-		// Colors which each tile will be
-		Color[][] tileColors = new Color[Game.HORIZONTAL_TILES][Game.VERTICAL_TILES];
+		// Redraw the rows which the game has said have changed
+		for(int j = dirtyTop; j <= dirtyBottom; j++){
+			for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
+				setTileType(i, j, gameInstance.getTileValue(i, j));
+			}
+		}
+		dirtyTop = Game.VERTICAL_TILES;
+		dirtyBottom = -1;
 
-		// Find the color that each tile is meant to be and set the relevant spot in tileColors to it
-		for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
-			for(int j = 0; j < Game.VERTICAL_TILES; j++){
-				int tileValue = gameInstance.getTileValue(i,j)-1;
-				if(tileValue == -1){
-					tileColors[i][j] = BACKGROUND_COLOR;
-					continue;
-				}
-				tileColors[i][j] = Game.BLOCK_COLORS[tileValue];
+		// The tiles which the block was over last frame show the game area again, unless the block is still there
+		for(int i = 0; i < drawnBlockTileCount; i++){
+			if(drawnBlockY[i] >= 0){
+				setTileType(drawnBlockX[i], drawnBlockY[i], gameInstance.getTileValue(drawnBlockX[i], drawnBlockY[i]));
 			}
 		}
+		drawnBlockTileCount = 0;
 
-		// Grab the tiles from the current block as well, since they can't be found with gameInstance.getTileValue(x,y)
+		// Draw the tiles from the current block as well, since they can't be found with gameInstance.getTileValue(x,y)
 		Block currentBlock = gameInstance.getCurrentBlock();
 		if(currentBlock != null){
-			Color tileValue = currentBlock.getColor();
-			for(int i = 0; i < currentBlock.getXPositions().length; i++){
+			int[] xPositions = currentBlock.getXPositions();
+			int[] yPositions = currentBlock.getYPositions();
+			if(drawnBlockX.length < currentBlock.getTileCount()){
+				drawnBlockX = new int[currentBlock.getTileCount()];
+				drawnBlockY = new int[currentBlock.getTileCount()];
+			}
+			for(int i = 0; i < currentBlock.getTileCount(); i++){
+				// Remember where the block was, so that it can be removed next frame
+				drawnBlockX[i] = xPositions[i];
+				drawnBlockY[i] = yPositions[i];
 				// If this point is above the screen, don't draw it
-				if(currentBlock.getYPositions()[i] < 0){
+				if(yPositions[i] < 0){
 					continue;
 				}
-				tileColors[currentBlock.getXPositions()[i]][currentBlock.getYPositions()[i]] = tileValue;
+				setTileType(xPositions[i], yPositions[i], currentBlock.getBlockType());
 			}
+			drawnBlockTileCount = currentBlock.getTileCount();
 		}
 
-		for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
-			for(int j = 0; j < Game.VERTICAL_TILES; j++){
-				drawRect(i*Game.TILE_SIZE, j*Game.TILE_SIZE, Game.TILE_SIZE, Game.TILE_SIZE, tileColors[i][j], BORDER_COLOR);
-			}
+		// Then draw every filled tile, followed by every border, straight from the buffer
+		glEnableClientState(GL_VERTEX_ARRAY);
+		glEnableClientState(GL_COLOR_ARRAY);
+		vertexBuffer.position(0);
+		glVertexPointer(2, GL_FLOAT, VERTEX_STRIDE, vertexBuffer);
+		vertexBuffer.position(2);
+		glColorPointer(3, GL_FLOAT, VERTEX_STRIDE, vertexBuffer);
+		glDrawArrays(GL_QUADS, 0, FILL_VERTEX_COUNT);
+		glDrawArrays(GL_LINES, FILL_VERTEX_COUNT, BORDER_VERTEX_COUNT);
+		glDisableClientState(GL_COLOR_ARRAY);
+		glDisableClientState(GL_VERTEX_ARRAY);
+		vertexBuffer.clear();
+	}
+
+	/**
+	 * Sets the color of the given tile's filled quad in the vertex buffer to that of the given block type,
+	 * if it isn't already drawn as that type
+	 */
+	private void setTileType(int x, int y, int blockType){
+		if(drawnTypes[getTileIndex(x, y)] == blockType){
+			return;
+		}
+		drawnTypes[getTileIndex(x, y)] = blockType;
+
+		float[] components = typeColorComponents[blockType];
+		int index = getFillVertex(x, y) * FLOATS_PER_VERTEX + 2;
+		for(int i = 0; i < FILL_VERTICES_PER_TILE; i++){
+			vertexBuffer.put(index, components[0]);
+			vertexBuffer.put(index+1, components[1]);
+			vertexBuffer.put(index+2, components[2]);
+			index += FLOATS_PER_VERTEX;
 		}
 	}
 
 	/**
-	 * Draws a rectangle with the specified parameters.
-	 * @param x The left-most x position of the rectangle.
-	 * @param y The top-most y position of the rectangle.
-	 * @param width The width of the rectangle.
-	 * @param height The height of the rectangle.
-	 * @param fillColor The color that the rectangle will be filled with.
-	 * @param borderColor The color of the border of the rectangle.
+	 * Marks the given rows (inclusive) of the game area as changed, so that they are redrawn next frame
 	 */
-	private void drawRect(int x, int y, int width, int height, Color fillColor, Color borderColor){
-		// Translate the co-ordinates to be appropriate for OpenGL
-		float tX = getFloatX(x);
-		float tY = getFloatY(y);
-
-		// Find the right and bottom most positions of the rectangle
-		int x2 = x + width;
-		int y2 = y + height;
-
-		// Translate the right and bottom most positions to be appropriate for OpenGL
-		float tX2 = getFloatX(x2);
-		float tY2 = getFloatY(y2);
-
-
-		// Set the color to the fill color and draw the filled rectangle
-		glColor3f(fillColor.getRGBComponents(null)[0], fillColor.getRGBComponents(null)[1], fillColor.getRGBComponents(null)[2]);
-		glBegin(GL_QUADS);
-			glVertex2f(tX, tY);
-			glVertex2f(tX, tY2);
-			glVertex2f(tX2, tY2);
-			glVertex2f(tX2, tY);
-		glEnd();
-
-		// Then set the color to the border color and draw a bunch of lines around the rectangle area
-		glColor3f(borderColor.getRGBComponents(null)[0], borderColor.getRGBComponents(null)[1], borderColor.getRGBComponents(null)[2]);
-		glBegin(GL_LINE_LOOP);
-			glVertex2f(tX, tY);
-			glVertex2f(tX, tY2);
-			glVertex2f(tX2, tY2);
-			glVertex2f(tX2, tY);
-		glEnd();
+	public void tilesChanged(int topRow, int bottomRow){
+		dirtyTop = Math.max(Math.min(dirtyTop, topRow), 0);
+		dirtyBottom = Math.min(Math.max(dirtyBottom, bottomRow), Game.VERTICAL_TILES-1);
 	}
 
 	/**
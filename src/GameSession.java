@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A game of Tetris being played by a person; draws the game in a GameScreen,
+ * moves it along on its own thread and saves the score to the highscores list
+ * once it has finished.
+ *
+ * The game thread updates at a fixed rate and draws at a (separate) fixed rate,
+ * both measured with System.nanoTime. Blocks fall whenever enough update time has
+ * built up for the current fall delay, so pressing down just changes how much is needed.
+ *
+ * @author Robert Campbell
+ */
+public class GameSession implements GameListener, Runnable {
+	// The amount of times per second the game is updated and drawn
+	public static final int UPDATE_RATE = 120;
+	public static final int RENDER_RATE = 60;
+	// If the game falls this many updates behind (e.g. the computer was busy), the missed updates are skipped
+	private static final int MAX_UPDATES_BEHIND = 10;
+
+	private static final long UPDATE_NANOS = 1000000000L / UPDATE_RATE;
+	private static final long RENDER_NANOS = 1000000000L / RENDER_RATE;
+
+	private Game game;
+	private GameScreen gameWindow;
+	// Records the game so that it can be played again, or null if the replay file couldn't be made
+	private ReplayRecorder recorder;
+
+	// The thread which runs the game loop
+	private Thread gameThread;
+	// The amount of update time which has built up towards the next time the block falls
+	private long fallNanos = 0;
+
+	/**
+	 * Constructor; creates a new game on the given difficulty and the given initial level,
+	 * and starts a thread which opens a window for it and plays it.
+	 *
+	 * @param difficulty The difficulty for the game instance.
+	 * @param initialLevel The level on which the game instance will start,
+	 */
+	public GameSession(int difficulty, int initialLevel){
+		game = new Game(difficulty, initialLevel);
+		game.addGameListener(this);
+		try{
+			recorder = ReplayRecorder.inReplayDirectory(game);
+		}
+		catch(IOException e){
+			System.err.println("Could not record a replay of the game: " + e);
+		}
+
+		gameThread = new Thread(this, "Tetris game loop");
+		gameThread.start();
+	}
+
+	/**
+	 * Returns the game being played
+	 */
+	public Game getGame(){
+		return game;
+	}
+
+	/**
+	 * The game loop. The window is made here, as OpenGL can only draw from the thread it was made on.
+	 */
+	public void run(){
+		long startTime = System.currentTimeMillis();
+		gameWindow = new GameScreen(game);
+
+		long nextUpdate = System.nanoTime();
+		long nextRender = nextUpdate;
+		while(!game.isOver()){
+			long now = System.nanoTime();
+
+			// Catch up on every update that is due, skipping them if too many have been missed
+			if(now - nextUpdate > MAX_UPDATES_BEHIND * UPDATE_NANOS){
+				nextUpdate = now;
+			}
+			while(now - nextUpdate >= 0 && !game.isOver()){
+				update();
+				nextUpdate += UPDATE_NANOS;
+			}
+
+			if(now - nextRender >= 0 && !game.isOver()){
+				gameWindow.redraw();
+				// Don't try to catch up on frames; just draw the next one on time
+				nextRender = Math.max(nextRender + RENDER_NANOS, now);
+			}
+
+			// Wait until either an update or a frame is next due
+			long wait = Math.min(nextUpdate, nextRender) - System.nanoTime();
+			if(wait > 0){
+				LockSupport.parkNanos(wait);
+			}
+		}
+
+		gameWindow.dispose();
+		saveHistory(System.currentTimeMillis() - startTime);
+		saveReplay();
+	}
+
+	/**
+	 * Moves the game on by one fixed update; keys are handled every update,
+	 * and the block falls (repeating held keys) each time a whole fall delay has built up.
+	 */
+	private void update(){
+		gameWindow.processKeys();
+		if(game.isOver()){ return; }
+
+		fallNanos += UPDATE_NANOS;
+		// The fall delay is checked every time, as it changes with the level and the down button.
+		// At very high levels it rounds down to 0, so the block falls at most once a millisecond
+		long fallDelayNanos = Math.max(game.getFallDelay(), 1) * 1000000L;
+		while(fallNanos >= fallDelayNanos && !game.isOver()){
+			fallNanos -= fallDelayNanos;
+			game.step();
+			if(game.isOver()){ return; }
+			gameWindow.repeatHeldKeys();
+		}
+	}
+
+	public void gameChanged(Game game){
+		// The game is drawn at a fixed rate, so there's nothing to do until the next frame
+	}
+
+	public void tilesChanged(Game game, int topRow, int bottomRow){
+		gameWindow.tilesChanged(topRow, bottomRow);
+	}
+
+	public void actionApplied(Game game, int action){
+		// Actions are drawn with everything else on the next frame
+	}
+
+	public void gameLost(Game game){
+		// The game loop closes the window once it sees that the game is over
+		saveHighscore(game.getScore());
+	}
+
+	/**
+	 * Checks the given score against the highscores list and edits the highscores list if necessary.
+	 * The highscores file is written in the background.
+	 */
+	private void saveHighscore(double score){
+		Leaderboard.getInstance().submit(score);
+	}
+
+	/**
+	 * Finishes writing the replay of the finished game
+	 */
+	private void saveReplay(){
+		if(recorder == null){ return; }
+		try{
+			recorder.close();
+		}
+		catch(IOException e){
+			System.err.println("Could not save the replay of the game: " + e);
+		}
+	}
+
+	/**
+	 * Adds the finished game, which lasted the given amount of time, to the game history file
+	 */
+	private void saveHistory(long durationMillis){
+		try{
+			GameHistory history = new GameHistory(GameHistory.HISTORY_FILE);
+			try{
+				history.append(GameRecord.of(game, durationMillis));
+			}
+			finally{
+				history.close();
+			}
+		}
+		catch(IOException e){
+			System.err.println("Could not save the game to the history file: " + e);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+
+/**
+ * The highscores list on disk; a file holding the top scores in descending order,
+ * separated by spaces.
+ *
+ * The file is never written in place. A new list is written to a temporary file
+ * which then replaces the old one in a single atomic rename, so a crash can't leave
+ * a half-written list behind and readers always see a whole one.
+ * Submitting a score holds a lock on a separate lock file while it reads, changes and
+ * replaces the list, so games ending at the same time (even in different processes)
+ * can't lose each other's scores.
+ *
+ * @author Robert Campbell
+ */
+public class HighscoreStore {
+	// The amount of scores kept in the list
+	public static final int HIGHSCORE_COUNT = 10;
+	// The file that the highscores are normally kept in
+	public static final String HIGHSCORES_FILE = "highscores.txt";
+
+	private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+	// File locks are held by the whole process, so threads in this process also have to take turns
+	private static final Object PROCESS_LOCK = new Object();
+
+	private Path file;
+	private Path tempFile;
+	private Path lockFile;
+
+	/**
+	 * Constructor; creates a store for the given highscores file, which doesn't need to exist yet
+	 */
+	public HighscoreStore(String fileName){
+		file = Paths.get(fileName).toAbsolutePath();
+		tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		lockFile = file.resolveSibling(file.getFileName() + ".lock");
+	}
+
+	/**
+	 * Returns the path of the highscores file
+	 */
+	public Path getPath(){
+		return file;
+	}
+
+	/**
+	 * Reads the highscores list. Missing scores (including when there is no file yet) are 0.
+	 * @return The scores, highest first
+	 */
+	public double[] read() throws IOException {
+		double[] highscores = new double[HIGHSCORE_COUNT];
+		if(!Files.exists(file)){
+			return highscores;
+		}
+		String[] tokens = new String(Files.readAllBytes(file), CHARSET).trim().split("\\s+");
+		for(int i = 0; i < HIGHSCORE_COUNT && i < tokens.length; i++){
+			try{
+				highscores[i] = Double.parseDouble(tokens[i]);
+			}
+			catch(NumberFormatException e){
+				// Like reading with a Scanner, stop at the first thing which isn't a score
+				break;
+			}
+		}
+		return highscores;
+	}
+
+	/**
+	 * Adds the given score to the highscores list, if it is higher than one of the scores on it.
+	 * @return The place (from 0) that the score was put in, or -1 if it wasn't high enough
+	 */
+	public int submit(double score) throws IOException {
+		synchronized(PROCESS_LOCK){
+			FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			try{
+				FileLock lock = lockChannel.lock();
+				try{
+					double[] highscores = read();
+					int highscorePlace = insertScore(highscores, score);
+					// Only rewrite the highscores list if the score made it on
+					if(highscorePlace != -1){
+						write(highscores);
+					}
+					return highscorePlace;
+				}
+				finally{
+					lock.release();
+				}
+			}
+			finally{
+				lockChannel.close();
+			}
+		}
+	}
+
+	/**
+	 * Puts the given score in its place in the given highscores list, discarding the lowest score.
+	 * @return The place (from 0) that the score was put in, or -1 if it wasn't high enough
+	 */
+	public static int insertScore(double[] highscores, double score){
+		// Find the index in the list where the highscore is
+		int highscorePlace = -1;
+		for(int j = 0; j < highscores.length; j++){
+			if(score > highscores[j]){
+				highscorePlace = j;
+				break;
+			}
+		}
+		if(highscorePlace == -1){
+			return -1;
+		}
+		// Move all of the highscores at and below that place down by one (discarding the last one)
+		for(int j = highscores.length-2; j >= highscorePlace; j--){
+			highscores[j+1] = highscores[j];
+		}
+		// And insert the score at the specified place
+		highscores[highscorePlace] = score;
+		return highscorePlace;
+	}
+
+	/**
+	 * Replaces the highscores file with the given list, by writing it to the temporary file
+	 * and then renaming that over the highscores file
+	 */
+	private void write(double[] highscores) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for(int j = 0; j < highscores.length; j++){
+			text.append(highscores[j]).append(' ');
+		}
+
+		FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try{
+			ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(CHARSET));
+			while(buffer.hasRemaining()){
+				channel.write(buffer);
+			}
+			// Make sure the new list is on the disk before it replaces the old one
+			channel.force(true);
+		}
+		finally{
+			channel.close();
+		}
+		try{
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e){
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size queue of key events, passed from the thread which receives them
+ * (the producer) to the game loop (the consumer) without locking.
+ * Only one thread may add events and only one thread may take them.
+ *
+ * Events are stored in parallel arrays, so adding and taking them never makes new objects.
+ *
+ * @author Robert Campbell
+ */
+public class KeyEventQueue {
+	private int capacity;
+	// Capacity is a power of 2, so that positions can be turned into indices with a mask
+	private int mask;
+
+	// The key and action (press or release) of each event
+	private int[] keys;
+	private int[] actions;
+
+	// The position of the next event to take; only changed by the consumer
+	private AtomicLong head = new AtomicLong();
+	// The position of the next event to add; only changed by the producer
+	private AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Constructor; creates a new empty queue.
+	 * @param capacity The most events which can wait in the queue at once; rounded up to a power of 2
+	 */
+	public KeyEventQueue(int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("Key event queue capacity must be at least 1, was " + capacity + ".");
+		}
+		this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+		if(capacity == 1){ this.capacity = 1; }
+		mask = this.capacity - 1;
+		keys = new int[this.capacity];
+		actions = new int[this.capacity];
+	}
+
+	/**
+	 * Adds an event to the end of the queue. Must only be called by the producer.
+	 * @return Whether the event was added; false if the queue was full
+	 */
+	public boolean offer(int key, int action){
+		long position = tail.get();
+		if(position - head.get() >= capacity){
+			return false;
+		}
+		int index = (int)position & mask;
+		keys[index] = key;
+		actions[index] = action;
+		// Publishing the new tail after writing the event makes the event visible to the consumer
+		tail.lazySet(position + 1);
+		return true;
+	}
+
+	/**
+	 * Returns whether there are no events waiting. Must only be called by the consumer.
+	 */
+	public boolean isEmpty(){
+		return head.get() == tail.get();
+	}
+
+	/**
+	 * Returns the amount of events waiting
+	 */
+	public int size(){
+		return (int)(tail.get() - head.get());
+	}
+
+	/**
+	 * Returns the key of the event at the front of the queue. Must only be called by the consumer, when it isn't empty.
+	 */
+	public int peekKey(){
+		return keys[(int)head.get() & mask];
+	}
+
+	/**
+	 * Returns the action of the event at the front of the queue. Must only be called by the consumer, when it isn't empty.
+	 */
+	public int peekAction(){
+		return actions[(int)head.get() & mask];
+	}
+
+	/**
+	 * Removes the event at the front of the queue. Must only be called by the consumer, when it isn't empty.
+	 */
+	public void remove(){
+		long position = head.get();
+		assert position != tail.get() : "Tried to remove a key event from an empty queue.";
+		// Publishing the new head lets the producer reuse the event's slot
+		head.lazySet(position + 1);
+	}
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * The highscores list shared by everything in this process.
+ * It is read from disk once, in the background, and then served from memory;
+ * new scores are added to it straight away and written to disk in the background.
+ * If another process changes the highscores file, the list is read again.
+ * A leaderboard which is no longer needed should be closed, to stop watching the file.
+ *
+ * @author Robert Campbell
+ */
+public class Leaderboard {
+	private static Leaderboard instance;
+
+	private HighscoreStore store;
+
+	// The highscores, highest first; only null before they have first been read
+	private double[] highscores;
+
+	// Reads from and writes to the highscores file, one at a time, away from the calling threads
+	private ExecutorService diskExecutor;
+	// The first read of the highscores file
+	private Future<?> initialLoad;
+	// Reads the highscores file again whenever it changes
+	private Thread watcherThread;
+	// Writes any scores still waiting to be written when the program exits
+	private Thread shutdownHook;
+
+	/**
+	 * Returns the leaderboard for the usual highscores file, creating it the first time this is called
+	 */
+	public static synchronized Leaderboard getInstance(){
+		if(instance == null){
+			instance = new Leaderboard(new HighscoreStore(HighscoreStore.HIGHSCORES_FILE));
+		}
+		return instance;
+	}
+
+	/**
+	 * Constructor; creates a leaderboard for the given store, and starts reading it and watching it for changes
+	 */
+	public Leaderboard(HighscoreStore store){
+		this.store = store;
+		diskExecutor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				return createDaemonThread(r, "Highscores writer");
+			}
+		});
+		initialLoad = diskExecutor.submit(new Runnable(){
+			public void run(){
+				reload();
+			}
+		});
+		watcherThread = createDaemonThread(new Runnable(){
+			public void run(){
+				watchFile();
+			}
+		}, "Highscores watcher");
+		watcherThread.start();
+
+		// Don't lose scores which are still waiting to be written when the program exits
+		shutdownHook = new Thread(new Runnable(){
+			public void run(){
+				flush();
+			}
+		}, "Highscores flusher");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Writes every score submitted so far, then stops watching the highscores file and stops the writer thread.
+	 * The leaderboard can't be used once it is closed.
+	 */
+	public void close(){
+		flush();
+		watcherThread.interrupt();
+		diskExecutor.shutdown();
+		try{
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		}
+		catch(IllegalStateException e){
+			// The program is already exiting, and the hook has flushed or will flush nothing
+		}
+	}
+
+	/**
+	 * Returns a copy of the highscores, highest first.
+	 * Only waits for the disk the first time, if the highscores haven't been read yet.
+	 */
+	public double[] getHighscores(){
+		try{
+			initialLoad.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e){
+			System.out.println("Failed to read from highscores file. " + e.getCause());
+		}
+		synchronized(this){
+			if(highscores == null){
+				return new double[HighscoreStore.HIGHSCORE_COUNT];
+			}
+			return highscores.clone();
+		}
+	}
+
+	/**
+	 * Adds the given score to the highscores if it is high enough. Returns straight away;
+	 * the highscores file is updated in the background.
+	 */
+	public void submit(final double score){
+		synchronized(this){
+			if(highscores != null){
+				HighscoreStore.insertScore(highscores, score);
+			}
+		}
+		diskExecutor.submit(new Runnable(){
+			public void run(){
+				try{
+					// The store merges the score with whatever is on disk, so other processes' scores aren't lost
+					store.submit(score);
+				}
+				catch(IOException e){
+					System.out.println("Could not read from OR write to highscores file. " + e);
+				}
+				reload();
+			}
+		});
+	}
+
+	/**
+	 * Waits until every score submitted so far has been written to disk
+	 */
+	public void flush(){
+		try{
+			diskExecutor.submit(new Runnable(){
+				public void run(){}
+			}).get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e){
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads the highscores file into memory
+	 */
+	private void reload(){
+		try{
+			double[] read = store.read();
+			synchronized(this){
+				highscores = read;
+			}
+		}
+		catch(IOException e){
+			System.out.println("Failed to read from highscores file. " + e);
+		}
+	}
+
+	/**
+	 * Watches the highscores file's directory, reading the file again whenever it changes.
+	 * Runs until the leaderboard is closed, which interrupts it.
+	 */
+	private void watchFile(){
+		Path directory = store.getPath().getParent();
+		Path fileName = store.getPath().getFileName();
+		try(WatchService watcher = directory.getFileSystem().newWatchService()){
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			while(true){
+				WatchKey key = watcher.take();
+				boolean changed = false;
+				for(WatchEvent<?> event : key.pollEvents()){
+					if(fileName.equals(event.context())){
+						changed = true;
+					}
+				}
+				if(changed){
+					try{
+						diskExecutor.submit(new Runnable(){
+							public void run(){
+								reload();
+							}
+						});
+					}
+					catch(RejectedExecutionException e){
+						// The leaderboard was closed while the file was changing
+						return;
+					}
+				}
+				if(!key.reset()){
+					return;
+				}
+			}
+		}
+		catch(IOException e){
+			System.out.println("Could not watch highscores file for changes. " + e);
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates a thread which won't stop the program from exiting
+	 */
+	private static Thread createDaemonThread(Runnable r, String name){
+		Thread thread = new Thread(r, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
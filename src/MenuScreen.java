@@ -31,6 +31,9 @@ public class MenuScreen implements ActionListener {
 	}
 
 	public MenuScreen(){
+		// Start reading the highscores in the background, so that they're ready when they are asked for
+		Leaderboard.getInstance();
+
 		// Initialise the frame
 		frame = new JFrame("Tetris Menu");
 		frame.setSize(MenuScreen.MENU_SCREEN_WIDTH, MenuScreen.MENU_SCREEN_HEIGHT);
@@ -121,22 +124,10 @@ public class MenuScreen implements ActionListener {
 		highscoreFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		highscoreFrame.setLayout(new GridLayout(0,1));
 
-		// Create a scanner to read from the highscores file
-		double[] highscores = new double[10];
-		try{
-			Scanner s = new Scanner(new File("highscores.txt"));
-			for(int i = 0; i < 10; i++){
-				if(s.hasNextDouble()){
-					highscores[i] = s.nextDouble();
-				}
-			}
-			s.close();
-		}
-		catch(IOException e){
-			System.out.println("Failed to read from highscores file. "+e);
-		}
+		// The highscores are kept in memory, so this doesn't need to read the file
+		double[] highscores = Leaderboard.getInstance().getHighscores();
 
-		for(int i = 0; i < 10; i++){
+		for(int i = 0; i < highscores.length; i++){
 			highscoreFrame.add(new JLabel((i+1)+". "+highscores[i]));
 		}
 
@@ -144,6 +135,6 @@ public class MenuScreen implements ActionListener {
 	}
 
 	private void startGame(){
-		new Game(difficultySlider.getValue(), initialLevelSlider.getValue());
+		new GameSession(difficultySlider.getValue(), initialLevelSlider.getValue());
 	}
 }
@@ -0,0 +1,31 @@
+
+/**
+ * Something which plays a game of Tetris without a person, by choosing which action to apply next;
+ * for example, to play many games at once in a BatchSimulator.
+ *
+ * A policy may keep state between calls, so each one only plays one game at a time.
+ *
+ * @author Robert Campbell
+ */
+public interface MovePolicy {
+	// Returned by nextAction when the policy doesn't want to do anything until the next step
+	public static final int NO_ACTION = 0;
+
+	/**
+	 * Makes a new policy for each game
+	 */
+	public interface Factory {
+		/**
+		 * Returns a new policy; any randomness it uses should come from the given seed,
+		 * so that the game can be played the same way again
+		 */
+		public MovePolicy create(long seed);
+	}
+
+	/**
+	 * Returns the next action (one of Game's ACTION_ constants) to apply to the game,
+	 * or NO_ACTION to wait until the game has been stepped again.
+	 * Called repeatedly between steps until it returns NO_ACTION or the player would have run out of time.
+	 */
+	public int nextAction(Game game);
+}
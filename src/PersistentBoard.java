@@ -0,0 +1,363 @@
+import java.util.Arrays;
+
+/**
+ * A board which never changes once it has been made; placing a block or clearing rows makes a new board instead.
+ * The new board shares every row which didn't change with the old one, so a search tree or a list of
+ * earlier boards to roll back to can hold thousands of boards for little more than the rows which differ.
+ *
+ * The rows are kept as a list from the top of the stack down to the bottom row, each holding its mask of
+ * occupied tiles (as in Board) and the types of its tiles. Rows above the stack are empty, and aren't kept.
+ * Blocks are nearly always placed near the top of the stack, so a placement only makes new rows from
+ * the top of the stack down to the lowest row the block is in; every row below is shared.
+ * Removing full rows drops the rows above them down, so they are made again, but the rows below are shared as well.
+ *
+ * The hash is the same as the hash of a Board with the same tiles occupied (see Board.getHash),
+ * so the two can share a TranspositionTable.
+ *
+ * @author Robert Campbell
+ */
+public class PersistentBoard {
+	/**
+	 * One row of the board; shared between every board which has it
+	 */
+	private static class Row {
+		private final long mask;
+		// The type of block in each tile, or null if the row is empty
+		private final byte[] types;
+		// The row below, or null if this is the bottom row; only set while the board is being made
+		private Row below;
+
+		private Row(long mask, byte[] types){
+			this.mask = mask;
+			this.types = types;
+		}
+	}
+
+	private final int width;
+	private final int height;
+	private final long fullRowMask;
+
+	// The highest row which is kept, or null if the board is empty
+	private final Row top;
+	// The row number of the top row, or the height if the board is empty; every row above it is empty
+	private final int stackTop;
+	private final long hash;
+
+	/**
+	 * Constructor; creates a new, empty board.
+	 * @param width The amount of tiles in each row
+	 * @param height The amount of rows
+	 */
+	public PersistentBoard(int width, int height){
+		if(width < 1 || width > Board.MAX_WIDTH){
+			throw new IllegalArgumentException("Board width must be between 1 and " + Board.MAX_WIDTH + ", was " + width + ".");
+		}
+		if(height < 1){
+			throw new IllegalArgumentException("Board height must be at least 1, was " + height + ".");
+		}
+		this.width = width;
+		this.height = height;
+		fullRowMask = width == Board.MAX_WIDTH ? -1L : (1L << width) - 1;
+		top = null;
+		stackTop = height;
+		hash = 0;
+	}
+
+	/**
+	 * Constructor; creates a board with the same tiles as the given board
+	 */
+	public PersistentBoard(Board board){
+		width = board.getWidth();
+		height = board.getHeight();
+		fullRowMask = board.getFullRowMask();
+		stackTop = board.getStackTop();
+		hash = board.getHash();
+		// Make the rows from the bottom up, so that each one's row below is already made
+		Row below = null;
+		for(int y = height-1; y >= stackTop; y--){
+			long mask = board.getRow(y);
+			byte[] types = null;
+			if(mask != 0){
+				types = new byte[width];
+				for(int x = 0; x < width; x++){
+					types[x] = (byte)board.getTileValue(x, y);
+				}
+			}
+			Row row = new Row(mask, types);
+			row.below = below;
+			below = row;
+		}
+		top = below;
+	}
+
+	private PersistentBoard(PersistentBoard other, Row top, int stackTop, long hash){
+		width = other.width;
+		height = other.height;
+		fullRowMask = other.fullRowMask;
+		this.top = top;
+		this.stackTop = stackTop;
+		this.hash = hash;
+	}
+
+	/**
+	 * Returns the amount of tiles in each row
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	/**
+	 * Returns the amount of rows
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Returns the highest row which has been filled since the board was empty, or the height if it is empty;
+	 * every row above it is empty
+	 */
+	public int getStackTop(){
+		return stackTop;
+	}
+
+	/**
+	 * Returns a hash of which tiles are occupied; it is the same as the hash of a Board with the same tiles occupied
+	 */
+	public long getHash(){
+		return hash;
+	}
+
+	/**
+	 * Returns the mask of occupied tiles in the given row.
+	 * This has to go down the rows from the top of the stack, so it takes longer for lower rows.
+	 */
+	public long getRow(int y){
+		Row row = getRowAt(y);
+		return row == null ? 0 : row.mask;
+	}
+
+	/**
+	 * Returns the type of block in the given tile, or 0 if it is empty
+	 */
+	public int getTileValue(int x, int y){
+		Row row = getRowAt(y);
+		return row == null || row.types == null ? 0 : row.types[x];
+	}
+
+	/**
+	 * Checks whether the given tile is occupied.
+	 * Tiles above the top of the board are never occupied.
+	 */
+	public boolean isOccupied(int x, int y){
+		return ((getRow(y) >>> x) & 1) != 0;
+	}
+
+	/**
+	 * Returns the given row, or null if it is above the stack (or the board)
+	 */
+	private Row getRowAt(int y){
+		if(y < stackTop){
+			return null;
+		}
+		Row row = top;
+		for(int i = stackTop; i < y; i++){
+			row = row.below;
+		}
+		return row;
+	}
+
+	/**
+	 * Returns the same hash of the type of block in every tile as Board.checksum does for a board with the same tiles
+	 */
+	public long checksum(){
+		long checksum = Board.skipEmptyTiles(0xcbf29ce484222325L, (long)stackTop * width);
+		for(Row row = top; row != null; row = row.below){
+			for(int x = 0; x < width; x++){
+				checksum = (checksum ^ (row.types == null ? 0 : row.types[x])) * 0x100000001b3L;
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Checks whether a block of the given shape and rotation (see BlockRotations) would fit with its origin at the given position;
+	 * that is, whether it would be within the sides and bottom of the board without overlapping any tiles.
+	 * Tiles above the top of the board are always allowed.
+	 */
+	public boolean fits(int shape, int rotation, int originX, int originY){
+		int left = originX + BlockRotations.MIN_X[shape][rotation];
+		int blockTop = originY + BlockRotations.MIN_Y[shape][rotation];
+		if(originY + BlockRotations.MAX_Y[shape][rotation] >= height){
+			return false;
+		}
+		if(left < 0 || originX + BlockRotations.MAX_X[shape][rotation] >= width){
+			return false;
+		}
+		long[] masks = BlockRotations.ROW_MASKS[shape][rotation];
+		// Only the rows of the block which are in the stack can overlap anything
+		int first = Math.max(stackTop - blockTop, 0);
+		Row row = getRowAt(blockTop + first);
+		for(int i = first; i < masks.length; i++){
+			if((row.mask & (masks[i] << left)) != 0){
+				return false;
+			}
+			row = row.below;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the row which the origin of a block of the given shape and rotation would end up in
+	 * if it were dropped straight down from above the stack with its origin in the given column.
+	 * Only the rows from the top of the stack to where it lands are looked at.
+	 */
+	public int getDropY(int shape, int rotation, int originX){
+		int left = originX + BlockRotations.MIN_X[shape][rotation];
+		if(left < 0 || originX + BlockRotations.MAX_X[shape][rotation] >= width){
+			throw new IllegalArgumentException("Block must be within the sides of the board, was at x " + originX + ".");
+		}
+		long[] masks = BlockRotations.ROW_MASKS[shape][rotation];
+		// Start with the bottom of the block just above the stack, where it can't overlap anything
+		int blockTop = stackTop - masks.length;
+		// The row at the top of the block once it moves down, when that is in the stack
+		Row first = top;
+		while(blockTop + 1 + masks.length <= height){
+			int nextTop = blockTop + 1;
+			Row row = nextTop >= stackTop ? first : top;
+			boolean overlaps = false;
+			for(int i = Math.max(stackTop - nextTop, 0); i < masks.length; i++){
+				if((row.mask & (masks[i] << left)) != 0){
+					overlaps = true;
+					break;
+				}
+				row = row.below;
+			}
+			if(overlaps){
+				break;
+			}
+			blockTop = nextTop;
+			if(nextTop >= stackTop){
+				first = first.below;
+			}
+		}
+		return blockTop - BlockRotations.MIN_Y[shape][rotation];
+	}
+
+	/**
+	 * Returns a board with the tiles of a block of the given shape and rotation (see BlockRotations) filled,
+	 * with its origin at the given position. Full rows are left for clearFullRows.
+	 * Every tile must be on the board, and none of them may already be filled.
+	 */
+	public PersistentBoard place(int shape, int rotation, int originX, int originY){
+		int left = originX + BlockRotations.MIN_X[shape][rotation];
+		int blockTop = originY + BlockRotations.MIN_Y[shape][rotation];
+		int blockBottom = originY + BlockRotations.MAX_Y[shape][rotation];
+		if(blockTop < 0 || blockBottom >= height){
+			throw new IllegalArgumentException("Block must be within the top and bottom of the board, was at y " + originY + ".");
+		}
+		long[] masks = BlockRotations.ROW_MASKS[shape][rotation];
+		byte type = (byte)(shape+1);
+
+		// Every row from the new top of the stack down to the bottom of the block is made again, as well as the
+		// empty rows between a block placed above the stack and the old top of the stack; the rest are shared
+		int newStackTop = Math.min(stackTop, blockTop);
+		int lastNewRow = Math.max(blockBottom, stackTop-1);
+		long newHash = hash;
+		Row old = top;
+		Row newTop = null;
+		Row last = null;
+		for(int y = newStackTop; y <= lastNewRow; y++){
+			long mask = 0;
+			byte[] types = null;
+			// Rows above the old stack were empty
+			if(y >= stackTop){
+				mask = old.mask;
+				types = old.types;
+				old = old.below;
+			}
+			long added = y >= blockTop && y <= blockBottom ? masks[y - blockTop] << left : 0;
+			if(added != 0){
+				types = types == null ? new byte[width] : types.clone();
+				for(long bits = added; bits != 0; bits &= bits-1){
+					types[Long.numberOfTrailingZeros(bits)] = type;
+				}
+				newHash ^= Board.getRowHash(y, mask) ^ Board.getRowHash(y, mask | added);
+				mask |= added;
+			}
+			Row row = new Row(mask, types);
+			if(last == null){ newTop = row; }
+			else{ last.below = row; }
+			last = row;
+		}
+		last.below = old;
+		return new PersistentBoard(this, newTop, newStackTop, newHash);
+	}
+
+	/**
+	 * Returns a board with every full row removed, and the rows above each of them dropped down to fill the gap,
+	 * or this board if no rows are full. The amount of rows removed is how far the stack top moved down.
+	 */
+	public PersistentBoard clearFullRows(){
+		// Find the lowest full row, and how many there are; only the rows down to it change
+		int lowestFullRow = -1;
+		int cleared = 0;
+		int y = stackTop;
+		for(Row row = top; row != null; row = row.below){
+			if(row.mask == fullRowMask){
+				lowestFullRow = y;
+				cleared++;
+			}
+			y++;
+		}
+		if(cleared == 0){
+			return this;
+		}
+
+		long newHash = hash;
+		Row old = top;
+		Row newTop = null;
+		Row last = null;
+		// The amount of full rows below the current one
+		int fullBelow = cleared;
+		for(y = stackTop; y <= lowestFullRow; y++){
+			newHash ^= Board.getRowHash(y, old.mask);
+			if(old.mask == fullRowMask){
+				fullBelow--;
+			}
+			else{
+				newHash ^= Board.getRowHash(y + fullBelow, old.mask);
+				Row row = new Row(old.mask, old.types);
+				if(last == null){ newTop = row; }
+				else{ last.below = row; }
+				last = row;
+			}
+			old = old.below;
+		}
+		if(last == null){
+			newTop = old;
+		}
+		else{
+			last.below = old;
+		}
+		return new PersistentBoard(this, newTop, stackTop + cleared, newHash);
+	}
+
+	/**
+	 * Copies the rows from the top of the stack down into the given arrays, as Board keeps them
+	 * @param firstRow The row which is at the start of the arrays
+	 */
+	void copyRowsTo(long[] rows, byte[] types, int firstRow){
+		int y = stackTop - firstRow;
+		for(Row row = top; row != null; row = row.below){
+			rows[y] = row.mask;
+			if(row.types == null){
+				Arrays.fill(types, y * width, (y+1) * width, (byte)0);
+			}
+			else{
+				System.arraycopy(row.types, 0, types, y * width, width);
+			}
+			y++;
+		}
+	}
+}
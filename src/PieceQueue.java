@@ -0,0 +1,150 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The order of the next blocks to drop, as block shapes (block types decremented).
+ *
+ * Tetris uses an algorithm such that, for each group of 7 blocks dropped,
+ * there will be no duplicates, meaning that one of each type of block must
+ * drop exactly one-seventh of the time. Whenever the queue runs low, another
+ * shuffled group (a "bag") of every shape is added to the end of it.
+ *
+ * The shapes are kept in a circular array of bytes which is only allocated when
+ * the preview depth changes, so taking and peeking at blocks never allocates.
+ *
+ * @author Robert Campbell
+ */
+public class PieceQueue {
+	// The amount of shapes in each bag
+	public static final int BAG_SIZE = Game.BLOCK_X_POSITIONS.length;
+
+	private SeededRandom random;
+	// The amount of upcoming shapes which can be peeked at
+	private int previewDepth;
+
+	// The queued shapes; the array's length is always a power of 2 so that positions can wrap with a mask
+	private byte[] shapes;
+	private int mask;
+	// The position of the next shape, and the amount of shapes queued from there
+	private int head = 0;
+	private int size = 0;
+
+	/**
+	 * Constructor; creates a new queue which shuffles its bags with the given generator.
+	 * @param previewDepth The amount of upcoming shapes after the next one which can be peeked at
+	 */
+	public PieceQueue(SeededRandom random, int previewDepth){
+		this.random = random;
+		this.shapes = new byte[0];
+		setPreviewDepth(previewDepth);
+	}
+
+	/**
+	 * Returns the amount of upcoming shapes which can be peeked at
+	 */
+	public int getPreviewDepth(){
+		return previewDepth;
+	}
+
+	/**
+	 * Sets the amount of upcoming shapes which can be peeked at, making room for them if necessary
+	 */
+	public void setPreviewDepth(int previewDepth){
+		if(previewDepth < 0){
+			throw new IllegalArgumentException("Preview depth cannot be negative, was " + previewDepth + ".");
+		}
+		this.previewDepth = previewDepth;
+		// There has to be room for the shapes being previewed, the one after them and a whole new bag
+		int capacity = Integer.highestOneBit(previewDepth + BAG_SIZE + 1) << 1;
+		if(capacity > shapes.length){
+			byte[] newShapes = new byte[capacity];
+			for(int i = 0; i < size; i++){
+				newShapes[i] = shapes[(head+i) & mask];
+			}
+			shapes = newShapes;
+			mask = capacity - 1;
+			head = 0;
+		}
+	}
+
+	/**
+	 * Removes and returns the next shape
+	 */
+	public int next(){
+		fill(1);
+		int shape = shapes[head];
+		head = (head+1) & mask;
+		size--;
+		return shape;
+	}
+
+	/**
+	 * Returns an upcoming shape without removing it
+	 * @param index How far ahead the shape is; 0 is the shape which next() will return
+	 */
+	public int peek(int index){
+		if(index < 0 || index > previewDepth){
+			throw new IndexOutOfBoundsException("Can only peek " + previewDepth + " shapes ahead, not " + index + ".");
+		}
+		fill(index+1);
+		return shapes[(head+index) & mask];
+	}
+
+	/**
+	 * Returns the most bytes that writeSnapshot can take up for this queue
+	 */
+	public int getMaxSnapshotSize(){
+		return 8 + shapes.length;
+	}
+
+	/**
+	 * Writes the preview depth and the queued shapes at the buffer's position.
+	 * The generator isn't written, as it belongs to the game.
+	 */
+	public void writeSnapshot(ByteBuffer buffer){
+		buffer.putInt(previewDepth);
+		buffer.putInt(size);
+		for(int i = 0; i < size; i++){
+			buffer.put(shapes[(head+i) & mask]);
+		}
+	}
+
+	/**
+	 * Replaces the preview depth and the queued shapes with ones written by writeSnapshot, from the buffer's position.
+	 * Only allocates if the preview depth has grown.
+	 */
+	public void readSnapshot(ByteBuffer buffer){
+		int newPreviewDepth = buffer.getInt();
+		int newSize = buffer.getInt();
+		size = 0;
+		setPreviewDepth(newPreviewDepth);
+		if(newSize < 0 || newSize > shapes.length){
+			throw new IllegalArgumentException("Piece queue snapshot has " + newSize + " shapes, more than it can hold.");
+		}
+		head = 0;
+		for(int i = 0; i < newSize; i++){
+			shapes[i] = buffer.get();
+		}
+		size = newSize;
+	}
+
+	/**
+	 * Adds bags to the end of the queue until it holds at least the given amount of shapes.
+	 * As bags are always added in the same order, when they are added doesn't change which shapes come out.
+	 */
+	private void fill(int needed){
+		while(size < needed){
+			int start = head + size;
+			for(int i = 0; i < BAG_SIZE; i++){
+				shapes[(start+i) & mask] = (byte)i;
+			}
+			// Shuffle the new bag where it is (a Fisher-Yates shuffle)
+			for(int i = BAG_SIZE-1; i > 0; i--){
+				int j = random.nextInt(i+1);
+				byte swap = shapes[(start+i) & mask];
+				shapes[(start+i) & mask] = shapes[(start+j) & mask];
+				shapes[(start+j) & mask] = swap;
+			}
+			size += BAG_SIZE;
+		}
+	}
+}
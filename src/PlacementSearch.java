@@ -0,0 +1,408 @@
+
+/**
+ * Finds the best place to put a block on a board, for a player without a person.
+ *
+ * Every placement which can be reached the way a player would is tried: turning the block as soon
+ * as it is far enough down to turn (the same rule as Game.pieceCanTurn), sliding it to a column and
+ * dropping it. Each placement is scored with a weighted sum of the lines it clears (counted the same
+ * way as Game.checkForTetris) and the holes, total column height and bumpiness (the differences between
+ * neighbouring columns) left behind, and the highest scoring one is kept.
+ *
+ * Placements are scored straight from the board's row masks without changing or copying the board,
+ * and all working space is kept between searches, so searching never allocates. If the search has a
+ * TranspositionTable, the board left by each placement is looked up in it by hash before being scored.
+ * A search is not safe to share between threads; each thread should have its own.
+ *
+ * @author Robert Campbell
+ */
+public class PlacementSearch {
+	// The default weights of each part of a placement's score; lines are good, the rest are bad
+	public static final double DEFAULT_LINES_WEIGHT = 0.76;
+	public static final double DEFAULT_HEIGHT_WEIGHT = -0.51;
+	public static final double DEFAULT_HOLES_WEIGHT = -0.36;
+	public static final double DEFAULT_BUMPINESS_WEIGHT = -0.18;
+
+	// The most actions needed to move a block to any placement; turns, slides and the drop
+	public static final int MAX_MOVES = 2 + Board.MAX_WIDTH + 1;
+	// The most placements a block can have on any board
+	public static final int MAX_PLACEMENTS = BlockRotations.ROTATIONS * Board.MAX_WIDTH;
+
+	private double linesWeight = DEFAULT_LINES_WEIGHT;
+	private double heightWeight = DEFAULT_HEIGHT_WEIGHT;
+	private double holesWeight = DEFAULT_HOLES_WEIGHT;
+	private double bumpinessWeight = DEFAULT_BUMPINESS_WEIGHT;
+
+	// The row of each column (counting only rows that aren't cleared) where its highest tile was found while scoring
+	private int[] columnTops = new int[Board.MAX_WIDTH];
+
+	// The best placement found by the last search
+	private int shape;
+	private int bestRotation;
+	private int bestX;
+	private int bestY;
+	private double bestScore;
+	private boolean isFound;
+	// Every placement scored by the last search, in the order they were scored
+	private int placementsScored;
+	private int[] placementRotations = new int[MAX_PLACEMENTS];
+	private int[] placementXs = new int[MAX_PLACEMENTS];
+	private int[] placementYs = new int[MAX_PLACEMENTS];
+	private int[] placementLines = new int[MAX_PLACEMENTS];
+	private double[] placementScores = new double[MAX_PLACEMENTS];
+	// The amount of lines cleared by the last placement evaluated
+	private int lastLines;
+
+	// Where scores of boards are cached, or null if they aren't
+	private TranspositionTable table;
+	private TranspositionTable.Probe probe = new TranspositionTable.Probe();
+	// How many blocks were placed to reach the board being searched, for the table
+	private int depth;
+	// The amount of placements found in the table by the last search
+	private int tableHits;
+
+	/**
+	 * Sets the weights of each part of a placement's score
+	 */
+	public void setWeights(double linesWeight, double heightWeight, double holesWeight, double bumpinessWeight){
+		this.linesWeight = linesWeight;
+		this.heightWeight = heightWeight;
+		this.holesWeight = holesWeight;
+		this.bumpinessWeight = bumpinessWeight;
+	}
+
+	/**
+	 * Sets the table to cache scores in, which may be shared with other searches with the same weights; null stops caching
+	 */
+	public void setTranspositionTable(TranspositionTable table){
+		this.table = table;
+	}
+
+	/**
+	 * Returns the x position of the origin that a block of the given shape is made at on the given board
+	 */
+	public static int getSpawnX(Board board, int shape){
+		return Game.BLOCK_ORIGIN_X_POSITIONS[shape] + board.getWidth()/2;
+	}
+
+	/**
+	 * Returns the y position of the origin that a block of the given shape is made at
+	 */
+	public static int getSpawnY(int shape){
+		return Game.BLOCK_ORIGIN_Y_POSITIONS[shape] - 2;
+	}
+
+	/**
+	 * Returns the row which a block of the given shape made on the given board would first be able to be in the
+	 * given rotation, or -1 if it can't be turned to it; blocks can only turn once every tile would be on the board
+	 */
+	public static int getTurnRow(Board board, int shape, int rotation){
+		int spawnX = getSpawnX(board, shape);
+		int y = getSpawnY(shape);
+		// Turning anticlockwise once is quicker than turning clockwise three times
+		int turns = rotation == 3 ? 1 : rotation;
+		boolean isClockwise = rotation != 3;
+		int turned = 0;
+		for(int i = 0; i < turns; i++){
+			turned = BlockRotations.turn(turned, isClockwise);
+			y = Math.max(y, -BlockRotations.MIN_Y[shape][turned]);
+		}
+		// The block has to be able to fall to the row, then turn through each rotation there
+		for(int fall = getSpawnY(shape)+1; fall <= y; fall++){
+			if(!board.fits(shape, 0, spawnX, fall)){ return -1; }
+		}
+		turned = 0;
+		for(int i = 0; i < turns; i++){
+			turned = BlockRotations.turn(turned, isClockwise);
+			if(!board.fits(shape, turned, spawnX, y)){ return -1; }
+		}
+		return y;
+	}
+
+	/**
+	 * Finds the best placement for a block of the given shape on the given board, scoring every placement however long it takes.
+	 * @param shape The shape of the block (its block type decremented)
+	 * @return Whether any placement was found
+	 */
+	public boolean search(Board board, int shape){
+		return search(board, shape, 0, false, 0);
+	}
+
+	/**
+	 * Finds the best placement for a block of the given shape on the given board.
+	 * The search stops early, keeping the best placement so far, if it runs past the given deadline.
+	 * @param shape The shape of the block (its block type decremented)
+	 * @param deadline The System.nanoTime after which to stop searching
+	 * @return Whether any placement was found
+	 */
+	public boolean search(Board board, int shape, long deadline){
+		return search(board, shape, 0, true, deadline);
+	}
+
+	/**
+	 * Finds the best placement for a block of the given shape on the given board, which was reached
+	 * by placing the given amount of blocks (see TranspositionTable.store).
+	 * The search stops early, keeping the best placement so far, if it runs past the given deadline.
+	 * @return Whether any placement was found
+	 */
+	public boolean search(Board board, int shape, int depth, long deadline){
+		return search(board, shape, depth, true, deadline);
+	}
+
+	/**
+	 * Finds the best placement for a block of the given shape on the given board, which was reached
+	 * by placing the given amount of blocks, stopping early at the given deadline only if it has one.
+	 * Deadlines are compared by subtracting System.nanoTime from them, so there is no deadline value that means never.
+	 * @return Whether any placement was found
+	 */
+	boolean search(Board board, int shape, int depth, boolean hasDeadline, long deadline){
+		this.shape = shape;
+		this.depth = depth;
+		tableHits = 0;
+		isFound = false;
+		bestScore = Double.NEGATIVE_INFINITY;
+		placementsScored = 0;
+
+		int spawnX = getSpawnX(board, shape);
+		for(int rotation = 0; rotation < BlockRotations.ROTATIONS; rotation++){
+			if(hasDeadline && rotation > 0 && System.nanoTime() - deadline > 0){
+				break;
+			}
+			int turnRow = getTurnRow(board, shape, rotation);
+			if(turnRow < 0){
+				continue;
+			}
+			// Slide the block each way from where it turned until something is in the way
+			for(int x = spawnX; board.fits(shape, rotation, x, turnRow); x--){
+				scorePlacement(board, rotation, x, turnRow);
+			}
+			for(int x = spawnX+1; board.fits(shape, rotation, x, turnRow); x++){
+				scorePlacement(board, rotation, x, turnRow);
+			}
+		}
+		return isFound;
+	}
+
+	/**
+	 * Drops the block from the given position and scores where it lands, keeping it if it's the best so far
+	 */
+	private void scorePlacement(Board board, int rotation, int x, int y){
+		y = board.getDropY(shape, rotation, x, y);
+		// A block which lands above the top of the board loses the game
+		if(y + BlockRotations.MIN_Y[shape][rotation] < 0){
+			return;
+		}
+		double score;
+		if(table == null){
+			score = evaluate(board, shape, rotation, x, y);
+		}
+		else{
+			long key = getPlacedHash(board, rotation, x, y);
+			if(table.find(key, probe)){
+				score = probe.getScore();
+				lastLines = probe.getLines();
+				tableHits++;
+			}
+			else{
+				score = evaluate(board, shape, rotation, x, y);
+				table.store(key, depth, score, lastLines);
+			}
+		}
+		placementRotations[placementsScored] = rotation;
+		placementXs[placementsScored] = x;
+		placementYs[placementsScored] = y;
+		placementLines[placementsScored] = lastLines;
+		placementScores[placementsScored] = score;
+		placementsScored++;
+		if(score > bestScore){
+			bestScore = score;
+			bestRotation = rotation;
+			bestX = x;
+			bestY = y;
+			isFound = true;
+		}
+	}
+
+	/**
+	 * Returns the hash of the given board with the current shape placed on it, before any lines are cleared;
+	 * only the rows the block is in change, so this is just a few row hashes (see Board.getRowHash)
+	 */
+	private long getPlacedHash(Board board, int rotation, int originX, int originY){
+		long[] masks = BlockRotations.ROW_MASKS[shape][rotation];
+		int left = originX + BlockRotations.MIN_X[shape][rotation];
+		int top = originY + BlockRotations.MIN_Y[shape][rotation];
+		long hash = board.getHash();
+		for(int i = 0; i < masks.length; i++){
+			long row = board.getRow(top + i);
+			hash ^= Board.getRowHash(top + i, row) ^ Board.getRowHash(top + i, row | (masks[i] << left));
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the score of the board which would be left by placing a block of the given shape and rotation
+	 * with its origin at the given position, and then clearing any full lines.
+	 * The block must fit there, with every tile on the board.
+	 */
+	public double evaluate(Board board, int shape, int rotation, int originX, int originY){
+		long[] masks = BlockRotations.ROW_MASKS[shape][rotation];
+		int left = originX + BlockRotations.MIN_X[shape][rotation];
+		int top = originY + BlockRotations.MIN_Y[shape][rotation];
+		long fullRowMask = board.getFullRowMask();
+
+		int lines = 0;
+		int holes = 0;
+		// The columns which have had a tile found in them so far, going down
+		long seen = 0;
+		// The amount of rows which are left once full ones are cleared, so far
+		int rowsLeft = 0;
+		// Rows above both the stack and the block are empty, so there's no need to look at them
+		for(int y = Math.min(board.getStackTop(), top); y < board.getHeight(); y++){
+			long row = board.getRow(y);
+			if(y >= top && y - top < masks.length){
+				row |= masks[y - top] << left;
+			}
+			if(row == fullRowMask){
+				lines++;
+				continue;
+			}
+			long found = row & ~seen;
+			while(found != 0){
+				columnTops[Long.numberOfTrailingZeros(found)] = rowsLeft;
+				found &= found-1;
+			}
+			// Every empty tile below a tile is a hole
+			holes += Long.bitCount(seen & ~row);
+			seen |= row;
+			rowsLeft++;
+		}
+
+		int totalHeight = 0;
+		int bumpiness = 0;
+		int lastHeight = 0;
+		for(int x = 0; x < board.getWidth(); x++){
+			int height = ((seen >>> x) & 1) != 0 ? rowsLeft - columnTops[x] : 0;
+			totalHeight += height;
+			if(x > 0){ bumpiness += Math.abs(height - lastHeight); }
+			lastHeight = height;
+		}
+		lastLines = lines;
+		return linesWeight * lines + heightWeight * totalHeight + holesWeight * holes + bumpinessWeight * bumpiness;
+	}
+
+	/**
+	 * Returns whether the last search found any placement
+	 */
+	public boolean isFound(){
+		return isFound;
+	}
+
+	/**
+	 * Returns the rotation of the best placement found by the last search
+	 */
+	public int getBestRotation(){
+		return bestRotation;
+	}
+
+	/**
+	 * Returns the x position of the origin of the best placement found by the last search
+	 */
+	public int getBestX(){
+		return bestX;
+	}
+
+	/**
+	 * Returns the y position of the origin of the best placement found by the last search, where the block lands
+	 */
+	public int getBestY(){
+		return bestY;
+	}
+
+	/**
+	 * Returns the score of the best placement found by the last search
+	 */
+	public double getBestScore(){
+		return bestScore;
+	}
+
+	/**
+	 * Returns the amount of placements scored by the last search
+	 */
+	public int getPlacementsScored(){
+		return placementsScored;
+	}
+
+	/**
+	 * Returns the amount of placements whose scores were found in the transposition table by the last search
+	 */
+	public int getTableHits(){
+		return tableHits;
+	}
+
+	/**
+	 * Returns the rotation of the given placement scored by the last search
+	 * @param placement The number of the placement, from 0 to getPlacementsScored()
+	 */
+	public int getPlacementRotation(int placement){
+		return placementRotations[placement];
+	}
+
+	/**
+	 * Returns the x position of the origin of the given placement scored by the last search
+	 */
+	public int getPlacementX(int placement){
+		return placementXs[placement];
+	}
+
+	/**
+	 * Returns the y position of the origin of the given placement scored by the last search, where the block lands
+	 */
+	public int getPlacementY(int placement){
+		return placementYs[placement];
+	}
+
+	/**
+	 * Returns the amount of lines cleared by the given placement scored by the last search
+	 */
+	public int getPlacementLines(int placement){
+		return placementLines[placement];
+	}
+
+	/**
+	 * Returns the score of the given placement scored by the last search
+	 */
+	public double getPlacementScore(int placement){
+		return placementScores[placement];
+	}
+
+	/**
+	 * Returns the weight given to each line cleared
+	 */
+	public double getLinesWeight(){
+		return linesWeight;
+	}
+
+	/**
+	 * Writes the actions (Game's ACTION_ constants) which move a newly made block to the best placement
+	 * found by the last search into the given array, which must have room for MAX_MOVES.
+	 * The last action hard drops the block into place.
+	 * The block's turns can only be applied once it has fallen to its turn row (see getTurnRow).
+	 * @return The amount of actions written
+	 */
+	public int getMoves(Board board, int[] actions){
+		int count = 0;
+		if(bestRotation == 3){
+			actions[count++] = Game.ACTION_TURN_ANTICLOCKWISE;
+		}
+		else{
+			for(int i = 0; i < bestRotation; i++){
+				actions[count++] = Game.ACTION_TURN_CLOCKWISE;
+			}
+		}
+		int slide = bestX - getSpawnX(board, shape);
+		for(int i = 0; i < Math.abs(slide); i++){
+			actions[count++] = slide > 0 ? Game.ACTION_MOVE_RIGHT : Game.ACTION_MOVE_LEFT;
+		}
+		actions[count++] = Game.ACTION_HARD_DROP;
+		return count;
+	}
+}
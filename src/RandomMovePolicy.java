@@ -0,0 +1,49 @@
+
+/**
+ * Plays a game by moving and turning each block at random before letting it fall.
+ * Not a good player, but a quick one which plays a different game for every seed.
+ *
+ * @author Robert Campbell
+ */
+public class RandomMovePolicy implements MovePolicy {
+	// The most moves and turns made to each block
+	private static final int MAX_MOVES = 8;
+
+	private SeededRandom random;
+	// The number of the block which moves are being made to (see Game.getBlockCount), and how many moves it has left
+	private int block = -1;
+	private int movesLeft;
+
+	/**
+	 * Constructor; creates a policy which chooses its moves with the given generator
+	 */
+	public RandomMovePolicy(SeededRandom random){
+		this.random = random;
+	}
+
+	/**
+	 * Returns a factory making random policies
+	 */
+	public static MovePolicy.Factory factory(){
+		return new MovePolicy.Factory(){
+			public MovePolicy create(long seed){
+				return new RandomMovePolicy(new SeededRandom(seed));
+			}
+		};
+	}
+
+	public int nextAction(Game game){
+		if(game.getCurrentBlock() == null){
+			return NO_ACTION;
+		}
+		if(game.getBlockCount() != block){
+			block = game.getBlockCount();
+			movesLeft = random.nextInt(MAX_MOVES + 1);
+		}
+		if(movesLeft == 0){
+			return NO_ACTION;
+		}
+		movesLeft--;
+		return Game.MOVE_ACTIONS[random.nextInt(Game.MOVE_ACTIONS.length)];
+	}
+}
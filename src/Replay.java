@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * A game recorded by a ReplayRecorder, which can be played again without a window
+ * as fast as the game can be stepped.
+ *
+ * Playing a replay gives the same game as the one recorded, so its final score and tiles
+ * are checked against the ones that were recorded; if they differ, the game's rules have changed
+ * since it was recorded (or the file has been changed). Call Replay.main() with replay files
+ * as arguments to play each of them and print whether their scores still hold.
+ *
+ * @author Robert Campbell
+ */
+public class Replay {
+	private Path file;
+	private long seed;
+	private int difficulty;
+	private int initialLevel;
+	private int width = Game.HORIZONTAL_TILES;
+	private int height = Game.VERTICAL_TILES;
+	// The actions, starting just after the header
+	private ByteBuffer records;
+
+	// What the recorded game ended with, known once the replay has been played
+	private double recordedScore;
+	private long recordedChecksum;
+	private boolean isVerified = false;
+
+	/**
+	 * Constructor; reads the replay in the given file
+	 */
+	public Replay(String fileName) throws IOException {
+		file = Paths.get(fileName);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try{
+			if(channel.size() > Integer.MAX_VALUE){
+				throw new IOException(file + " is too large to be a replay.");
+			}
+			records = ByteBuffer.allocate((int)channel.size());
+			while(records.hasRemaining()){
+				if(channel.read(records) < 0){
+					throw new IOException("Unexpected end of " + file + ".");
+				}
+			}
+			records.flip();
+		}
+		finally{
+			channel.close();
+		}
+
+		try{
+			int version = records.getInt() == ReplayRecorder.MAGIC ? records.get() : -1;
+			if(version != ReplayRecorder.VERSION && version != ReplayRecorder.VERSION_WINDOW_SIZED){
+				throw new IOException(file + " is not a replay file this version can read.");
+			}
+			seed = records.getLong();
+			difficulty = (int)ReplayRecorder.getVarint(records);
+			initialLevel = (int)ReplayRecorder.getVarint(records);
+			if(version != ReplayRecorder.VERSION_WINDOW_SIZED){
+				width = (int)ReplayRecorder.getVarint(records);
+				height = (int)ReplayRecorder.getVarint(records);
+			}
+		}
+		catch(BufferUnderflowException e){
+			throw new IOException("Unexpected end of " + file + ".");
+		}
+	}
+
+	/**
+	 * Plays the replay from the start, applying each recorded action after the same amount of steps as when it was recorded
+	 * @return The finished game
+	 * @throws IOException If the replay is incomplete or damaged
+	 */
+	public Game play() throws IOException {
+		Game game;
+		try{
+			game = new Game(difficulty, initialLevel, seed, width, height);
+		}
+		catch(IllegalArgumentException e){
+			throw new IOException(file + " is damaged: " + e.getMessage());
+		}
+		ByteBuffer actions = records.duplicate();
+		try{
+			while(true){
+				long steps = ReplayRecorder.getVarint(actions);
+				for(long i = 0; i < steps; i++){
+					game.step();
+				}
+				int action = actions.get();
+				if(action == ReplayRecorder.ACTION_END){
+					break;
+				}
+				game.apply(action);
+			}
+			recordedChecksum = actions.getLong();
+			recordedScore = actions.getDouble();
+		}
+		catch(BufferUnderflowException e){
+			throw new IOException("Unexpected end of " + file + "; the game may not have finished.");
+		}
+		catch(IllegalArgumentException e){
+			throw new IOException(file + " is damaged: " + e.getMessage());
+		}
+
+		isVerified = game.isOver() && game.getScore() == recordedScore && game.getBoard().checksum() == recordedChecksum;
+		return game;
+	}
+
+	/**
+	 * Returns whether the last time the replay was played, it ended the same way as the recorded game
+	 */
+	public boolean isVerified(){
+		return isVerified;
+	}
+
+	/**
+	 * Returns the score the recorded game ended with; only known once the replay has been played
+	 */
+	public double getRecordedScore(){
+		return recordedScore;
+	}
+
+	/**
+	 * Returns the seed of the recorded game
+	 */
+	public long getSeed(){
+		return seed;
+	}
+
+	/**
+	 * Returns the difficulty the recorded game was played on
+	 */
+	public int getDifficulty(){
+		return difficulty;
+	}
+
+	/**
+	 * Returns the level the recorded game started on
+	 */
+	public int getInitialLevel(){
+		return initialLevel;
+	}
+
+	/**
+	 * Returns the amount of tiles across the recorded game's area
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	/**
+	 * Returns the amount of tiles down the recorded game's area
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Plays every replay file given as an argument and prints its score, and whether it matches the recorded one
+	 */
+	public static void main(String[] args){
+		int mismatches = 0;
+		for(int i = 0; i < args.length; i++){
+			try{
+				Replay replay = new Replay(args[i]);
+				Game game = replay.play();
+				System.out.println(String.format("%-40s %14.0f %14.0f %s", args[i], replay.getRecordedScore(), game.getScore(), replay.isVerified() ? "OK" : "MISMATCH"));
+				if(!replay.isVerified()){ mismatches++; }
+			}
+			catch(IOException e){
+				System.out.println(String.format("%-40s %s", args[i], e.getMessage()));
+				mismatches++;
+			}
+		}
+		System.out.println(args.length + " replays played, " + mismatches + " did not match.");
+	}
+}
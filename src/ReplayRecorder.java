@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Records a game to a replay file as it is played, so that it can be played again exactly with Replay.
+ *
+ * A game only depends on its seed, difficulty, initial level and size and on which actions were applied
+ * between which steps, so that is all that is written. The file starts with a header of the seed,
+ * difficulty, initial level, width and height; then each action is written as the amount of steps since the last
+ * action (a varint) and the action (a byte). When the game ends, an end record (an action of 0)
+ * is written with the final score and a checksum of the tiles, which playing it again should match.
+ *
+ * Records are built up in a buffer and written to the file when it fills up or the game ends,
+ * so recording a game doesn't touch the disk on every key press.
+ *
+ * @author Robert Campbell
+ */
+public class ReplayRecorder implements GameListener {
+	// The directory that replays of games played in a window are kept in
+	public static final String REPLAY_DIRECTORY = "replays";
+
+	static final int MAGIC = 0x54525059;
+	static final int VERSION = 2;
+	// Replays from before games could be other sizes, which are all the size of the window
+	static final int VERSION_WINDOW_SIZED = 1;
+	// The action of the record written when the game ends
+	static final int ACTION_END = 0;
+
+	// The most bytes a varint of a long can take up
+	static final int MAX_VARINT_SIZE = 10;
+	// The most bytes a record can take up: the steps, the action, the checksum and the score
+	private static final int MAX_RECORD_SIZE = MAX_VARINT_SIZE + 1 + 8 + 8;
+	private static final int BUFFER_SIZE = 4096;
+
+	private Path file;
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	// The game's step count when the last record was written
+	private long lastStep;
+	// The first error writing the file, which stops the recording; it is thrown from close()
+	private IOException error;
+
+	/**
+	 * Constructor; starts recording the given game to the given file, replacing the file if it already exists.
+	 * The game must not have been started yet.
+	 */
+	public ReplayRecorder(Game game, String fileName) throws IOException {
+		if(game.getStepCount() != 0){
+			throw new IllegalArgumentException("A game can only be recorded from its start.");
+		}
+		file = Paths.get(fileName);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		buffer.putInt(MAGIC);
+		buffer.put((byte)VERSION);
+		buffer.putLong(game.getSeed());
+		putVarint(buffer, game.getDifficulty());
+		putVarint(buffer, game.getInitialLevel());
+		putVarint(buffer, game.getWidth());
+		putVarint(buffer, game.getHeight());
+		game.addGameListener(this);
+	}
+
+	/**
+	 * Creates a recorder for the given game in a new file in REPLAY_DIRECTORY, named after the game's seed
+	 */
+	public static ReplayRecorder inReplayDirectory(Game game) throws IOException {
+		Files.createDirectories(Paths.get(REPLAY_DIRECTORY));
+		String fileName = REPLAY_DIRECTORY + "/" + Long.toHexString(game.getSeed()) + ".replay";
+		return new ReplayRecorder(game, fileName);
+	}
+
+	/**
+	 * Returns the file being recorded to
+	 */
+	public Path getFile(){
+		return file;
+	}
+
+	public void gameChanged(Game game){
+		// Only actions and the end of the game are recorded
+	}
+
+	public void tilesChanged(Game game, int topRow, int bottomRow){
+		// Only actions and the end of the game are recorded
+	}
+
+	public void actionApplied(Game game, int action){
+		writeRecord(game, action);
+	}
+
+	public void gameLost(Game game){
+		writeRecord(game, ACTION_END);
+		if(channel == null){ return; }
+		buffer.putLong(game.getBoard().checksum());
+		buffer.putDouble(game.getScore());
+		try{
+			flush();
+			channel.close();
+		}
+		catch(IOException e){
+			stop(e);
+		}
+		channel = null;
+	}
+
+	/**
+	 * Writes a record of the given action having been applied at the game's current step
+	 */
+	private void writeRecord(Game game, int action){
+		if(channel == null){ return; }
+		try{
+			if(buffer.remaining() < MAX_RECORD_SIZE){
+				flush();
+			}
+		}
+		catch(IOException e){
+			stop(e);
+			return;
+		}
+		putVarint(buffer, game.getStepCount() - lastStep);
+		buffer.put((byte)action);
+		lastStep = game.getStepCount();
+	}
+
+	/**
+	 * Writes everything in the buffer to the file and empties it
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Stops recording because of the given error
+	 */
+	private void stop(IOException e){
+		error = e;
+		try{
+			channel.close();
+		}
+		catch(IOException closeError){
+			// The first error is the one that matters
+		}
+		channel = null;
+	}
+
+	/**
+	 * Stops recording, writing anything which hasn't been written yet.
+	 * A game which hasn't ended leaves an incomplete replay, which can't be played.
+	 * @throws IOException If the replay couldn't be written at any point
+	 */
+	public void close() throws IOException {
+		if(channel != null){
+			try{
+				flush();
+				channel.close();
+			}
+			catch(IOException e){
+				stop(e);
+			}
+			channel = null;
+		}
+		if(error != null){
+			throw error;
+		}
+	}
+
+	/**
+	 * Writes the given non-negative long at the buffer's position in as few bytes as possible;
+	 * 7 bits to each byte, lowest first, with the top bit set on every byte but the last
+	 */
+	static void putVarint(ByteBuffer buffer, long value){
+		while((value & ~0x7fL) != 0){
+			buffer.put((byte)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+
+	/**
+	 * Reads a long written by putVarint from the buffer's position
+	 */
+	static long getVarint(ByteBuffer buffer){
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7){
+			byte b = buffer.get();
+			value |= (long)(b & 0x7f) << shift;
+			if(b >= 0){
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Varint is longer than " + MAX_VARINT_SIZE + " bytes.");
+	}
+}
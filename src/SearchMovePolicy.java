@@ -0,0 +1,126 @@
+
+/**
+ * Plays a game by searching for the best placement of each block as it is made (see PlacementSearch),
+ * then turning and sliding the block there and dropping it. If it looks ahead, the blocks coming
+ * next are taken into account as well (see BeamSearch).
+ *
+ * @author Robert Campbell
+ */
+public class SearchMovePolicy implements MovePolicy {
+	// The default longest time to search for each block's placement, in nanoseconds
+	public static final long DEFAULT_SEARCH_NANOS = 1000000;
+	// The size of the transposition table shared by the policies of a factory which look ahead
+	public static final long DEFAULT_TABLE_BYTES = 16 << 20;
+
+	private PlacementSearch search = new PlacementSearch();
+	// Used instead of the placement search when looking ahead, or null if not
+	private BeamSearch beamSearch;
+	private long searchNanos;
+
+	// The number of the block which is being placed (see Game.getBlockCount), and where it is going
+	private int block = -1;
+	private boolean hasTarget;
+	private int targetRotation;
+	private int targetX;
+	private boolean isDropped;
+
+	/**
+	 * Constructor; creates a policy which searches for up to the given amount of nanoseconds for each placement
+	 */
+	public SearchMovePolicy(long searchNanos){
+		this.searchNanos = searchNanos;
+	}
+
+	/**
+	 * Constructor; creates a policy which looks ahead at the given amount of blocks after each one,
+	 * searching for up to the given amount of nanoseconds for each placement
+	 */
+	public SearchMovePolicy(long searchNanos, int lookahead, int beamWidth){
+		this(searchNanos, lookahead, beamWidth, null);
+	}
+
+	/**
+	 * Constructor; creates a policy which looks ahead at the given amount of blocks after each one,
+	 * searching for up to the given amount of nanoseconds for each placement and caching board scores
+	 * in the given table (which may be null)
+	 */
+	public SearchMovePolicy(long searchNanos, int lookahead, int beamWidth, TranspositionTable table){
+		this.searchNanos = searchNanos;
+		search.setTranspositionTable(table);
+		if(lookahead > 0){
+			beamSearch = new BeamSearch(lookahead, beamWidth);
+			beamSearch.setTranspositionTable(table);
+		}
+	}
+
+	/**
+	 * Returns a factory making search policies with the default search time
+	 */
+	public static MovePolicy.Factory factory(){
+		return new MovePolicy.Factory(){
+			public MovePolicy create(long seed){
+				return new SearchMovePolicy(DEFAULT_SEARCH_NANOS);
+			}
+		};
+	}
+
+	/**
+	 * Returns a factory making search policies which look ahead at the given amount of blocks, with the default search time.
+	 * Every policy it makes shares one transposition table.
+	 */
+	public static MovePolicy.Factory factory(final int lookahead, final int beamWidth){
+		final TranspositionTable table = new TranspositionTable(DEFAULT_TABLE_BYTES);
+		return new MovePolicy.Factory(){
+			public MovePolicy create(long seed){
+				return new SearchMovePolicy(DEFAULT_SEARCH_NANOS, lookahead, beamWidth, table);
+			}
+		};
+	}
+
+	/**
+	 * Returns the search used to find placements when not looking ahead, so that its weights can be changed
+	 */
+	public PlacementSearch getSearch(){
+		return search;
+	}
+
+	public int nextAction(Game game){
+		Block current = game.getCurrentBlock();
+		if(current == null){
+			return NO_ACTION;
+		}
+		if(game.getBlockCount() != block){
+			block = game.getBlockCount();
+			isDropped = false;
+			long deadline = System.nanoTime() + searchNanos;
+			if(beamSearch != null){
+				hasTarget = beamSearch.search(game.getBoard(), current.getBlockType()-1, game.getNextBlocks(), deadline);
+				targetRotation = beamSearch.getBestRotation();
+				targetX = beamSearch.getBestX();
+			}
+			else{
+				hasTarget = search.search(game.getBoard(), current.getBlockType()-1, deadline);
+				targetRotation = search.getBestRotation();
+				targetX = search.getBestX();
+			}
+		}
+		if(!hasTarget || isDropped){
+			return NO_ACTION;
+		}
+
+		if(current.getRotation() != targetRotation){
+			boolean isClockwise = targetRotation != 3;
+			// The block may not have fallen far enough to turn yet
+			return game.pieceCanTurn(isClockwise) ? (isClockwise ? Game.ACTION_TURN_CLOCKWISE : Game.ACTION_TURN_ANTICLOCKWISE) : NO_ACTION;
+		}
+		if(current.getOriginX() != targetX){
+			boolean isRight = targetX > current.getOriginX();
+			if(!game.isValidHorizontal(isRight)){
+				return NO_ACTION;
+			}
+			return isRight ? Game.ACTION_MOVE_RIGHT : Game.ACTION_MOVE_LEFT;
+		}
+		isDropped = true;
+		return Game.ACTION_HARD_DROP;
+	}
+}
@@ -0,0 +1,90 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fast random number generator whose whole state is a single long (the SplitMix64 algorithm),
+ * so that a game can be played again exactly from its seed.
+ *
+ * Unlike Math.random(), each game has its own generator, so games on different threads
+ * never wait for each other. A generator is not safe to share between threads; split() it instead.
+ *
+ * @author Robert Campbell
+ */
+public class SeededRandom {
+	// Added to the state for each number; an odd number close to 2^64 divided by the golden ratio
+	private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+	// Where seeds for generators made without one come from, so that generators made at the same time still differ
+	private static final AtomicLong seeder = new AtomicLong(mix(System.currentTimeMillis()) ^ mix(System.nanoTime()));
+
+	private long state;
+
+	/**
+	 * Constructor; creates a generator which will always give the same numbers for the given seed
+	 */
+	public SeededRandom(long seed){
+		state = seed;
+	}
+
+	/**
+	 * Returns a new seed, different from every other one returned by this JVM
+	 */
+	public static long newSeed(){
+		return mix(seeder.getAndAdd(GAMMA << 1));
+	}
+
+	/**
+	 * Returns the next random long; every value is equally likely
+	 */
+	public long nextLong(){
+		state += GAMMA;
+		return mix(state);
+	}
+
+	/**
+	 * Returns a random int from 0 (inclusive) to the given bound (exclusive); every value is equally likely
+	 */
+	public int nextInt(int bound){
+		if(bound <= 0){
+			throw new IllegalArgumentException("Bound must be positive, was " + bound + ".");
+		}
+		// Take the high 31 bits, which are the most random, and throw away any which would favour low values
+		int bits = (int)(nextLong() >>> 33);
+		int value = bits % bound;
+		while(bits - value + (bound-1) < 0){
+			bits = (int)(nextLong() >>> 33);
+			value = bits % bound;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns a new generator seeded from this one, for giving to another game or thread.
+	 * The same generator split in the same order always gives the same new generators.
+	 */
+	public SeededRandom split(){
+		return new SeededRandom(mix(nextLong()));
+	}
+
+	/**
+	 * Returns the generator's whole state; a generator made with it as its seed carries on from here
+	 */
+	public long getState(){
+		return state;
+	}
+
+	/**
+	 * Sets the generator's whole state, as returned by getState()
+	 */
+	public void setState(long state){
+		this.state = state;
+	}
+
+	/**
+	 * Scrambles the bits of the given long, so that consecutive inputs give unrelated outputs
+	 */
+	static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
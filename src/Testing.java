@@ -10,6 +10,25 @@ public class Testing {
 	 * Runs all tests for the tetris game.
 	 */
 	public static void runTests(){
+		testSteps();
+		testSeededGames();
+		testPieceQueue();
+		testLineClears();
+		testRotations();
+		testKeyEventQueue();
+		testHighscoreStore();
+		testLeaderboard();
+		testGameHistory();
+		testReplays();
+		testBatchSimulator();
+		testPlacementSearch();
+		testBeamSearch();
+		testTranspositionTable();
+		testSnapshots();
+		testPersistentBoard();
+		testBoardSizes();
+		testHardDrop();
+		// These come last, as they don't pass yet and would stop the tests after them from running
 		testGame();
 		testBlock();
 		System.out.println("All tests completed.");
@@ -125,6 +144,106 @@ public class Testing {
 		}
 	}
 
+	/**
+	 * Tests stepping a game and applying actions to it without a window
+	 */
+	public static void testSteps(){
+		Game w = new Game(1, 1);
+
+		// The first step should make a new block, and the next should move it down by one
+		w.step();
+		assert w.getCurrentBlock() != null : "Stepping the game did not make a new block.";
+		int initialY = w.getCurrentBlock().getYPositions()[0];
+		w.step();
+		assert w.getCurrentBlock().getYPositions()[0] == initialY+1 : "Stepping the game did not move the block down.";
+
+		// Moving the block should only change its horizontal position
+		int initialX = w.getCurrentBlock().getXPositions()[0];
+		w.apply(Game.ACTION_MOVE_LEFT);
+		assert w.getCurrentBlock().getXPositions()[0] == initialX-1 : "Applying a move left action did not move the block left.";
+		w.apply(Game.ACTION_MOVE_RIGHT);
+		assert w.getCurrentBlock().getXPositions()[0] == initialX : "Applying a move right action did not move the block right.";
+
+		// Pressing the down button should make the block fall faster
+		int fallDelay = w.getFallDelay();
+		w.apply(Game.ACTION_RUSH_DOWN);
+		assert w.getFallDelay() < fallDelay : "Applying a rush down action did not decrease the fall delay.";
+		w.apply(Game.ACTION_HALT_RUSH_DOWN);
+		assert w.getFallDelay() == fallDelay : "Applying a halt rush down action did not restore the fall delay.";
+
+		// Quitting should end the game, after which nothing should change
+		w.apply(Game.ACTION_QUIT);
+		assert w.isOver() : "Applying a quit action did not end the game.";
+		w.step();
+		assert w.getCurrentBlock().getYPositions()[0] == initialY+1 : "Stepping the game moved the block after the game had ended.";
+	}
+
+	/**
+	 * Tests clearing several full lines at once, with other rows between and above them
+	 */
+	public static void testLineClears(){
+		Game w = new Game(1, 1);
+		// The level only becomes 1 once the first block has been made
+		w.setLevel(1);
+		Board board = w.getBoard();
+		int bottom = Game.VERTICAL_TILES-1;
+
+		// Full lines on the bottom row and two rows above it, a single tile on the row between,
+		// and a single tile on the row above the top full line
+		for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
+			board.setTileValue(i, bottom, 1);
+			board.setTileValue(i, bottom-2, 2);
+		}
+		board.setTileValue(3, bottom-1, 3);
+		board.setTileValue(7, bottom-3, 4);
+
+		w.checkForTetris();
+
+		// The remaining tiles should have dropped down by the amount of full lines below them
+		assert w.getTileValue(3, bottom) == 3 : "Tile between two cleared lines was not dropped down by one.";
+		assert w.getTileValue(7, bottom-1) == 4 : "Tile above two cleared lines was not dropped down by two.";
+		for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
+			for(int j = 0; j < Game.VERTICAL_TILES; j++){
+				if((i == 3 && j == bottom) || (i == 7 && j == bottom-1)){
+					continue;
+				}
+				assert w.getTileValue(i, j) == 0 : "Clearing lines erroneously left a block at ("+i+","+j+").";
+			}
+		}
+		assert w.getScore() > 0 : "Clearing lines did not increase the score.";
+		// And the column heights should have followed them
+		assert board.getColumnHeight(3) == 1 : "Column height was not updated after clearing lines.";
+		assert board.getColumnHeight(7) == 2 : "Column height was not updated after clearing lines.";
+		assert board.getColumnHeight(0) == 0 : "Emptied column did not have a height of 0 after clearing lines.";
+		assert board.getStackTop() == bottom-1 : "Top of the stack was not updated after clearing lines.";
+
+		// Clearing four lines at once should also be scored
+		double score = w.getScore();
+		board.clearRow(bottom);
+		board.clearRow(bottom-1);
+		for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
+			for(int j = bottom-3; j <= bottom; j++){
+				board.setTileValue(i, j, 5);
+			}
+		}
+		w.checkForTetris();
+		assert w.getScore() > score : "Clearing four lines at once did not increase the score.";
+
+		// At level 1, clearing 1 to 4 lines at once should score these exact amounts
+		int[] lineScores = { 2000, 8000, 21000, 28000 };
+		for(int lines = 1; lines <= lineScores.length; lines++){
+			Game game = new Game(1, 1);
+			game.setLevel(1);
+			for(int i = 0; i < Game.HORIZONTAL_TILES; i++){
+				for(int j = bottom-lines+1; j <= bottom; j++){
+					game.getBoard().setTileValue(i, j, 1);
+				}
+			}
+			game.checkForTetris();
+			assert game.getScore() == lineScores[lines-1] : "Clearing " + lines + " lines scored " + game.getScore() + " rather than " + lineScores[lines-1] + ".";
+		}
+	}
+
 	/**
 	 * Tests the various methods of the block class
 	 */
@@ -153,9 +272,9 @@ public class Testing {
 
 		// Attempt to remove and then re-add a tile
 		b.removeTile(3,3);
-		assert b.getXPositions().length == 2 : "Block did not remove tile correctly; resulting array was inappropriate length.";
+		assert b.getTileCount() == 2 : "Block did not remove tile correctly; resulting tile count was inappropriate.";
 		b.addTile(3,3);
-		assert b.getXPositions().length == 3 : "Block did not re-add tile correctly; resulting array was inappropriate length.";
+		assert b.getTileCount() == 3 : "Block did not re-add tile correctly; resulting tile count was inappropriate.";
 		assert b.getXPositions()[2] == 3 : "Block did not re-add tile correctly; resulting array did not contain new tile's x position.";
 		assert b.getYPositions()[2] == 3 : "Block did not re-add tile correctly; resulting array did not contain new tile's y position.";
 
@@ -180,4 +299,676 @@ public class Testing {
 		assert b.getYPositions()[2] == 5 : "Block did not shift tile down correctly; y position was not correctly incremented.";
 
 	}
+
+	/**
+	 * Tests that the precomputed rotations of each block shape match turning the shape tile by tile
+	 */
+	public static void testRotations(){
+		for(int shape = 0; shape < Game.BLOCK_X_POSITIONS.length; shape++){
+			Block shaped = new Block(shape+1, 5, 5);
+			// The same tiles as a block which isn't known to be one of the shapes (note the origin is moved up by 2)
+			Block arbitrary = new Block(shaped.getXPositions().clone(), shaped.getYPositions().clone(), 5, 7, shape+1);
+
+			for(int i = 0; i < BlockRotations.ROTATIONS * 2; i++){
+				// Go around clockwise once, then anticlockwise
+				boolean isClockwise = i < BlockRotations.ROTATIONS;
+				shaped.turn(isClockwise);
+				arbitrary.turn(isClockwise);
+				for(int j = 0; j < shaped.getTileCount(); j++){
+					assert arbitrary.containsPos(shaped.getXPositions()[j], shaped.getYPositions()[j]) : "Precomputed rotation of shape " + shape + " did not match turning it tile by tile.";
+				}
+			}
+			assert shaped.getRotation() == 0 : "Shape " + shape + " did not return to its initial rotation after turning around both ways.";
+		}
+	}
+
+	/**
+	 * Tests that key events come out of the queue in order, and that a full queue refuses events
+	 */
+	public static void testKeyEventQueue(){
+		KeyEventQueue q = new KeyEventQueue(3);
+		assert q.isEmpty() : "Key event queue was not created empty.";
+
+		// The capacity is rounded up to 4
+		for(int i = 0; i < 4; i++){
+			assert q.offer(10+i, i % 2) : "Key event queue refused an event before it was full.";
+		}
+		assert !q.offer(14, 0) : "Key event queue accepted an event while it was full.";
+		assert q.size() == 4 : "Key event queue did not contain the right amount of events.";
+
+		// Events come out in the order they went in, and taking one makes room for another
+		for(int i = 0; i < 4; i++){
+			assert q.peekKey() == 10+i && q.peekAction() == i % 2 : "Key event queue did not return events in order.";
+			q.remove();
+			assert q.offer(14+i, 0) : "Key event queue did not make room after an event was taken.";
+		}
+		assert q.peekKey() == 14 : "Key event queue did not return events in order after wrapping around.";
+	}
+
+	/**
+	 * Tests submitting scores to and reading them from a highscores file
+	 */
+	public static void testHighscoreStore(){
+		try{
+			java.io.File file = java.io.File.createTempFile("highscores", ".txt");
+			file.delete();
+			HighscoreStore store = new HighscoreStore(file.getPath());
+
+			// A missing file has no scores
+			assert store.read()[0] == 0 : "Missing highscores file did not read as empty.";
+
+			// Scores should be kept in descending order
+			assert store.submit(50) == 0 : "First score was not put in first place.";
+			assert store.submit(70) == 0 : "Higher score was not put in first place.";
+			assert store.submit(60) == 1 : "Middle score was not put in second place.";
+			double[] highscores = store.read();
+			assert highscores[0] == 70 && highscores[1] == 60 && highscores[2] == 50 : "Highscores were not read back in order.";
+
+			// Once the list is full, scores lower than all of them shouldn't be added
+			for(int i = 0; i < HighscoreStore.HIGHSCORE_COUNT; i++){
+				store.submit(100 + i);
+			}
+			assert store.submit(1) == -1 : "Score lower than every highscore was put on the list.";
+			assert store.read()[HighscoreStore.HIGHSCORE_COUNT-1] == 100 : "Lowest highscore was not discarded when the list was full.";
+
+			file.delete();
+			new java.io.File(file.getPath() + ".lock").delete();
+		}
+		catch(java.io.IOException e){
+			throw new AssertionError("Could not use highscores file: " + e);
+		}
+	}
+
+	/**
+	 * Tests that the leaderboard serves submitted scores from memory and writes them to disk
+	 */
+	public static void testLeaderboard(){
+		try{
+			java.io.File file = java.io.File.createTempFile("highscores", ".txt");
+			file.delete();
+			HighscoreStore store = new HighscoreStore(file.getPath());
+			Leaderboard leaderboard = new Leaderboard(store);
+
+			assert leaderboard.getHighscores()[0] == 0 : "Leaderboard for a missing file was not empty.";
+
+			// Submitted scores should be available straight away, and on disk once flushed
+			leaderboard.submit(30);
+			leaderboard.submit(40);
+			assert leaderboard.getHighscores()[0] == 40 : "Leaderboard did not contain the highest submitted score.";
+			assert leaderboard.getHighscores()[1] == 30 : "Leaderboard did not contain the second highest submitted score.";
+			leaderboard.flush();
+			assert store.read()[0] == 40 && store.read()[1] == 30 : "Leaderboard did not write submitted scores to disk.";
+			leaderboard.close();
+
+			file.delete();
+			new java.io.File(file.getPath() + ".lock").delete();
+		}
+		catch(java.io.IOException e){
+			throw new AssertionError("Could not use highscores file: " + e);
+		}
+	}
+
+	/**
+	 * Tests that games with the same seed are played the same way
+	 */
+	public static void testSeededGames(){
+		SeededRandom a = new SeededRandom(42);
+		SeededRandom b = new SeededRandom(42);
+		for(int i = 0; i < 100; i++){
+			int value = a.nextInt(7);
+			assert value == b.nextInt(7) : "Generators with the same seed gave different numbers.";
+			assert value >= 0 && value < 7 : "Generator gave a number out of bounds: " + value;
+		}
+		assert a.split().nextLong() == b.split().nextLong() : "Generators with the same seed split differently.";
+
+		// Two games with the same seed should get the same blocks, and so end up with the same tiles
+		Game first = new Game(1, 1, 1234);
+		Game second = new Game(1, 1, 1234);
+		for(int i = 0; i < 2000 && !first.isOver(); i++){
+			first.step();
+			second.step();
+			// There is no current block between one block landing and the next being made
+			if(first.getCurrentBlock() != null){
+				assert first.getCurrentBlock().getBlockType() == second.getCurrentBlock().getBlockType() : "Games with the same seed got different blocks.";
+			}
+		}
+		for(int x = 0; x < Game.HORIZONTAL_TILES; x++){
+			for(int y = 0; y < Game.VERTICAL_TILES; y++){
+				assert first.getTileValue(x, y) == second.getTileValue(x, y) : "Games with the same seed ended with different tiles.";
+			}
+		}
+	}
+
+	/**
+	 * Tests the queue of upcoming blocks
+	 */
+	public static void testPieceQueue(){
+		PieceQueue queue = new PieceQueue(new SeededRandom(7), 3);
+		for(int bag = 0; bag < 20; bag++){
+			// Every bag should contain each shape exactly once
+			boolean[] seen = new boolean[PieceQueue.BAG_SIZE];
+			for(int i = 0; i < PieceQueue.BAG_SIZE; i++){
+				// Peeking should show the shapes that are taken next, in order
+				int peeked = queue.peek(0);
+				int ahead = queue.peek(3);
+				assert queue.next() == peeked : "Piece queue did not return the shape it was peeked at with.";
+				assert queue.peek(2) == ahead : "Piece queue peeked at shapes out of order.";
+				assert !seen[peeked] : "Piece queue bag contained shape " + peeked + " twice.";
+				seen[peeked] = true;
+			}
+		}
+
+		// Increasing the preview depth should keep the shapes already queued
+		int next = queue.peek(0);
+		queue.setPreviewDepth(20);
+		assert queue.peek(0) == next : "Piece queue lost its shapes when the preview depth changed.";
+		queue.peek(20);
+		assert queue.next() == next : "Piece queue lost its shapes when the preview depth changed.";
+	}
+
+	/**
+	 * Tests the game history log and its indexes
+	 */
+	public static void testGameHistory(){
+		try{
+			java.io.File file = java.io.File.createTempFile("history", ".dat");
+			file.delete();
+			GameHistory history = new GameHistory(file.getPath());
+
+			// Add games on two difficulties, with scores 1 to 200 on difficulty 1
+			for(int i = 1; i <= 200; i++){
+				history.append(new GameRecord(i, 1, 1, 2, i, 1000, i));
+			}
+			history.append(new GameRecord(5000, 2, 1, 5, 40, 1000, 0));
+			assert history.getRecordCount() == 201 : "Game history did not contain every appended game.";
+			assert history.getRecord(9).getScore() == 10 : "Game history record was not read back correctly.";
+			assert history.getGameCount(1) == 200 : "Game history did not count the games on a difficulty.";
+			assert history.getGameCount(2) == 1 : "Game history counted games from another difficulty.";
+
+			GameRecord[] top = history.getTopScores(1, 3);
+			assert top.length == 3 && top[0].getScore() == 200 && top[2].getScore() == 198 : "Game history top scores were wrong.";
+			// More than the index keeps should still be found, from the log
+			assert history.getTopScores(1, 150)[149].getScore() == 51 : "Game history top scores beyond the index were wrong.";
+			try{
+				history.getTopScores(1, -1);
+				assert false : "Game history returned a negative amount of top scores.";
+			}
+			catch(IllegalArgumentException e){
+				// Expected
+			}
+
+			double median = history.getPercentile(1, 50);
+			assert Math.abs(median - 100) <= 100 * 0.04 : "Game history median was " + median + ", not about 100.";
+			assert Double.isNaN(history.getPercentile(3, 50)) : "Game history percentile of no games was not NaN.";
+			history.close();
+
+			// An index which is missing should be rebuilt from the log
+			new java.io.File(file.getPath() + ".d1.idx").delete();
+			history = new GameHistory(file.getPath());
+			assert history.getGameCount(1) == 200 : "Game history index was not rebuilt from the log.";
+			assert history.getTopScores(1, 1)[0].getScore() == 200 : "Game history rebuilt index had the wrong top score.";
+			history.close();
+
+			// An index left part way through adding records (its updating flag set, with some games counted twice) should be rebuilt too
+			java.io.RandomAccessFile index = new java.io.RandomAccessFile(file.getPath() + ".d1.idx", "rw");
+			index.seek(16);
+			index.writeLong(250);
+			index.seek(28);
+			index.writeInt(1);
+			index.close();
+			history = new GameHistory(file.getPath());
+			assert history.getGameCount(1) == 200 : "Game history index which was half updated was not rebuilt from the log.";
+			history.close();
+
+			for(int difficulty = 1; difficulty <= 3; difficulty++){
+				new java.io.File(file.getPath() + ".d" + difficulty + ".idx").delete();
+			}
+			file.delete();
+		}
+		catch(java.io.IOException e){
+			throw new AssertionError("Could not use game history file: " + e);
+		}
+	}
+
+	/**
+	 * Tests recording a game and playing it again from the replay
+	 */
+	public static void testReplays(){
+		try{
+			java.io.File file = java.io.File.createTempFile("game", ".replay");
+			Game game = new Game(2, 3, 99);
+			ReplayRecorder recorder = new ReplayRecorder(game, file.getPath());
+
+			// Play the game with actions chosen from another generator, until the blocks reach the top
+			SeededRandom actions = new SeededRandom(5);
+			int[] playerActions = { Game.ACTION_MOVE_LEFT, Game.ACTION_MOVE_RIGHT, Game.ACTION_TURN_CLOCKWISE, Game.ACTION_TURN_ANTICLOCKWISE, Game.ACTION_RUSH_DOWN, Game.ACTION_HALT_RUSH_DOWN };
+			while(!game.isOver()){
+				game.step();
+				if(actions.nextInt(3) == 0){
+					game.apply(playerActions[actions.nextInt(playerActions.length)]);
+				}
+			}
+			recorder.close();
+
+			Replay replay = new Replay(file.getPath());
+			assert replay.getSeed() == 99 && replay.getDifficulty() == 2 && replay.getInitialLevel() == 3 : "Replay header was not read back correctly.";
+			Game replayed = replay.play();
+			assert replay.isVerified() : "Replayed game did not end the same way as the recorded game.";
+			assert replayed.getScore() == game.getScore() && replayed.getLinesCleared() == game.getLinesCleared() : "Replayed game had a different score.";
+			assert replayed.getStepCount() == game.getStepCount() : "Replayed game lasted a different amount of steps.";
+
+			// A game which was quit part way through (e.g. by closing the window) should play back the same way
+			java.io.File quitFile = java.io.File.createTempFile("game", ".replay");
+			Game quit = new Game(1, 1, 12);
+			ReplayRecorder quitRecorder = new ReplayRecorder(quit, quitFile.getPath());
+			for(int i = 0; i < 50; i++){
+				quit.step();
+			}
+			quit.apply(Game.ACTION_QUIT);
+			quitRecorder.close();
+			Replay quitReplay = new Replay(quitFile.getPath());
+			Game quitReplayed = quitReplay.play();
+			assert quitReplay.isVerified() && quitReplayed.getStepCount() == 50 : "Replay of a game which was quit did not end the same way.";
+			quitFile.delete();
+
+			// A replay cut off before the game ended can't be played
+			java.io.RandomAccessFile cut = new java.io.RandomAccessFile(file, "rw");
+			cut.setLength(cut.length() - 1);
+			cut.close();
+			try{
+				new Replay(file.getPath()).play();
+				assert false : "Incomplete replay was played.";
+			}
+			catch(java.io.IOException e){
+				// Expected
+			}
+
+			file.delete();
+		}
+		catch(java.io.IOException e){
+			throw new AssertionError("Could not use replay file: " + e);
+		}
+	}
+
+	/**
+	 * Tests that batches of games are played the same way no matter how many threads play them
+	 */
+	public static void testBatchSimulator(){
+		java.util.concurrent.ForkJoinPool onePool = new java.util.concurrent.ForkJoinPool(1);
+		java.util.concurrent.ForkJoinPool fourPool = new java.util.concurrent.ForkJoinPool(4);
+		BatchSimulator.Result one = new BatchSimulator(1, 1, RandomMovePolicy.factory(), onePool).run(40, 77);
+		BatchSimulator.Result four = new BatchSimulator(1, 1, RandomMovePolicy.factory(), fourPool).run(40, 77);
+		onePool.shutdown();
+		fourPool.shutdown();
+
+		assert one.getGameCount() == 40 : "Batch did not play every game.";
+		for(int i = 0; i < 40; i++){
+			assert one.getSeed(i) == four.getSeed(i) : "Batches with the same seed played different games.";
+			assert one.getScore(i) == four.getScore(i) && one.getLevel(i) == four.getLevel(i) : "Game " + i + " was played differently on more threads.";
+			assert one.isToppedOut(i) : "Random game " + i + " did not end.";
+		}
+		assert one.getScorePercentile(0) <= one.getScorePercentile(50) && one.getScorePercentile(50) <= one.getScorePercentile(100) : "Batch score percentiles were out of order.";
+		assert one.getPlacementsPerSecond() > 0 : "Batch did not place any blocks.";
+	}
+
+	/**
+	 * Tests finding the best placement for a block, and playing games with it
+	 */
+	public static void testPlacementSearch(){
+		// Every row but one tile is full on the bottom four rows; an I block turned upright should go in the gap
+		Board board = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+		int gap = 2;
+		for(int y = Game.VERTICAL_TILES-4; y < Game.VERTICAL_TILES; y++){
+			for(int x = 0; x < Game.HORIZONTAL_TILES; x++){
+				if(x != gap){ board.setTileValue(x, y, 3); }
+			}
+		}
+		PlacementSearch search = new PlacementSearch();
+		assert search.search(board, 0) : "Placement search found nowhere to put a block on an open board.";
+		int rotation = search.getBestRotation();
+		assert rotation == 1 || rotation == 3 : "Placement search did not stand the I block upright to fill the gap.";
+		assert search.getBestX() + BlockRotations.MIN_X[0][rotation] == gap : "Placement search did not put the I block in the gap.";
+		assert search.getBestY() + BlockRotations.MAX_Y[0][rotation] == Game.VERTICAL_TILES-1 : "Placement search did not drop the block to the bottom.";
+
+		// The moves should turn the block once and slide it to the gap
+		int[] moves = new int[PlacementSearch.MAX_MOVES];
+		int count = search.getMoves(board, moves);
+		int slide = search.getBestX() - PlacementSearch.getSpawnX(board, 0);
+		assert count == 1 + Math.abs(slide) + 1 : "Placement search gave the wrong amount of moves.";
+		assert moves[count-1] == Game.ACTION_HARD_DROP : "Placement search moves did not end by hard dropping the block.";
+
+		// Searching should play much better than moving at random
+		BatchSimulator.Result result = new BatchSimulator(1, 1, SearchMovePolicy.factory()).run(8, 3);
+		assert result.getMeanLines() > 10 : "Search policy only cleared " + result.getMeanLines() + " lines per game.";
+	}
+
+	/**
+	 * Tests planning placements by looking ahead at the next blocks
+	 */
+	public static void testBeamSearch(){
+		// With nothing to look ahead at, the beam search should pick the same placement as the placement search
+		Game game = new Game(1, 1, 11);
+		Board board = game.getBoard();
+		for(int x = 0; x < Game.HORIZONTAL_TILES; x += 2){
+			board.setTileValue(x, Game.VERTICAL_TILES-1, 1);
+		}
+		PlacementSearch single = new PlacementSearch();
+		BeamSearch beam = new BeamSearch(3, 4);
+		single.search(board, 6);
+		beam.search(board, new int[] { 6 }, 1);
+		assert beam.getBestScore() == single.getBestScore() : "Beam search without lookahead did not match the placement search.";
+
+		// Looking ahead should search every level, and leave the board being searched alone
+		long checksum = board.checksum();
+		assert beam.search(board, 6, game.getNextBlocks()) : "Beam search found nowhere to put a block.";
+		assert beam.getDepthSearched() == 4 : "Beam search did not look ahead at every block.";
+		assert board.checksum() == checksum : "Beam search changed the board being searched.";
+		assert board.fits(6, beam.getBestRotation(), beam.getBestX(), beam.getBestY()) : "Beam search chose a placement which doesn't fit.";
+
+		// A deadline which has already passed should still give a placement for the current block
+		assert beam.search(board, 6, game.getNextBlocks(), System.nanoTime() - 1) : "Beam search past its deadline found nowhere to put a block.";
+		assert beam.getDepthSearched() == 1 : "Beam search looked ahead after its deadline had passed.";
+
+		BatchSimulator simulator = new BatchSimulator(1, 1, SearchMovePolicy.factory(2, 4));
+		simulator.setMaxSteps(5000);
+		BatchSimulator.Result result = simulator.run(2, 3);
+		assert result.getMeanLines() > 10 : "Lookahead policy only cleared " + result.getMeanLines() + " lines per game.";
+	}
+
+	/**
+	 * Tests that board hashes follow the tiles, and caching board scores by them
+	 */
+	public static void testTranspositionTable(){
+		// Boards with the same tiles occupied should have the same hash, however they got there
+		Board first = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+		Board second = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+		assert first.getHash() == 0 : "Empty board did not have a hash of 0.";
+		first.place(0, 0, 5, Game.VERTICAL_TILES-1);
+		first.place(3, 0, 2, Game.VERTICAL_TILES-2);
+		second.place(3, 0, 2, Game.VERTICAL_TILES-2);
+		second.place(0, 0, 5, Game.VERTICAL_TILES-1);
+		assert first.getHash() == second.getHash() : "Boards with the same tiles had different hashes.";
+		second.setTileValue(0, 0, 1);
+		assert first.getHash() != second.getHash() : "Boards with different tiles had the same hash.";
+		second.setTileValue(0, 0, 0);
+		assert first.getHash() == second.getHash() : "Emptying a tile did not restore the hash.";
+
+		// Clearing lines should leave the same hash as a board which never had them
+		for(int x = 0; x < Game.HORIZONTAL_TILES; x++){
+			first.setTileValue(x, Game.VERTICAL_TILES-3, 2);
+		}
+		first.setTileValue(0, Game.VERTICAL_TILES-4, 2);
+		first.clearFullRows();
+		Board expected = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+		for(int x = 0; x < Game.HORIZONTAL_TILES; x++){
+			for(int y = 0; y < Game.VERTICAL_TILES; y++){
+				expected.setTileValue(x, y, first.getTileValue(x, y));
+			}
+		}
+		assert first.getHash() == expected.getHash() : "Clearing lines left the wrong hash.";
+
+		// Stored boards should be found again, and others shouldn't
+		TranspositionTable table = new TranspositionTable(1 << 16);
+		TranspositionTable.Probe probe = new TranspositionTable.Probe();
+		table.store(12345, 2, -3.5, 1);
+		assert table.find(12345, probe) && probe.getScore() == -3.5 && probe.getLines() == 1 : "Stored board was not found in the table.";
+		assert !table.find(54321, probe) : "Board which was never stored was found in the table.";
+
+		// Searching with a table should choose the same placements, finding some boards in it
+		Game game = new Game(1, 1, 21);
+		Board board = game.getBoard();
+		for(int x = 1; x < Game.HORIZONTAL_TILES; x += 3){
+			board.setTileValue(x, Game.VERTICAL_TILES-1, 4);
+		}
+		BeamSearch plain = new BeamSearch(3, 6);
+		BeamSearch cached = new BeamSearch(3, 6);
+		cached.setTranspositionTable(new TranspositionTable(1 << 20));
+		plain.search(board, 2, game.getNextBlocks());
+		cached.search(board, 2, game.getNextBlocks());
+		assert plain.getBestScore() == cached.getBestScore() && plain.getBestX() == cached.getBestX() : "Searching with a table chose a different placement.";
+		assert cached.getTableHits() > 0 : "Searching with a table never reached the same board twice.";
+		// Boards can push each other out of the table, but most of them should still be there
+		cached.search(board, 2, game.getNextBlocks());
+		assert cached.getTableHits() >= cached.getPlacementsScored() * 9 / 10 : "Searching the same board again did not find its boards in the table.";
+	}
+
+	/**
+	 * Tests that a game restored from a snapshot carries on exactly as the original does
+	 */
+	public static void testSnapshots(){
+		Game game = new Game(1, 1, 31);
+		SeededRandom actions = new SeededRandom(8);
+		for(int i = 0; i < 300; i++){
+			game.step();
+			game.apply(Game.MOVE_ACTIONS[actions.nextInt(Game.MOVE_ACTIONS.length)]);
+		}
+		java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(game.getMaxSnapshotSize());
+		game.writeSnapshot(buffer);
+		assert buffer.position() <= game.getMaxSnapshotSize() : "Game snapshot was larger than its maximum size.";
+		buffer.flip();
+
+		// A game restored from the snapshot (even one which was already going) should be the same as the original
+		Game restored = new Game(2, 5, 1000);
+		restored.step();
+		restored.readSnapshot(buffer);
+		assert !buffer.hasRemaining() : "Restoring a game did not read the whole snapshot.";
+		assert restored.getBoard().checksum() == game.getBoard().checksum() && restored.getBoard().getHash() == game.getBoard().getHash() : "Restored game had different tiles.";
+		assert restored.getScore() == game.getScore() && restored.getLevel() == game.getLevel() && restored.getSeed() == game.getSeed() : "Restored game had a different score, level or seed.";
+
+		// And it should carry on the same way, including the blocks which haven't been chosen yet
+		for(int i = 0; i < 2000 && !game.isOver(); i++){
+			int action = Game.MOVE_ACTIONS[actions.nextInt(Game.MOVE_ACTIONS.length)];
+			game.step();
+			restored.step();
+			game.apply(action);
+			restored.apply(action);
+		}
+		assert restored.getBoard().checksum() == game.getBoard().checksum() : "Restored game did not carry on the same way as the original.";
+		assert restored.getScore() == game.getScore() && restored.isOver() == game.isOver() : "Restored game did not end the same way as the original.";
+	}
+
+	/**
+	 * Tests that a persistent board places blocks and clears rows as a Board does, without changing the boards it came from
+	 */
+	public static void testPersistentBoard(){
+		int width = Game.HORIZONTAL_TILES;
+		int height = Game.VERTICAL_TILES;
+		Board board = new Board(width, height);
+		PersistentBoard persistent = new PersistentBoard(width, height);
+		PersistentBoard[] history = new PersistentBoard[200];
+		long[] checksums = new long[history.length];
+		SeededRandom random = new SeededRandom(23);
+		int placed = 0;
+		for(; placed < history.length; placed++){
+			history[placed] = persistent;
+			checksums[placed] = board.checksum();
+			int shape = random.nextInt(BlockRotations.ROW_MASKS.length);
+			int rotation = random.nextInt(BlockRotations.ROTATIONS);
+			int x = -BlockRotations.MIN_X[shape][rotation] + random.nextInt(width - BlockRotations.MAX_X[shape][rotation] + BlockRotations.MIN_X[shape][rotation]);
+			// Drop the block onto both boards, working out where it lands on the Board one row at a time
+			int y = persistent.getDropY(shape, rotation, x);
+			int boardY = -BlockRotations.MIN_Y[shape][rotation];
+			while(board.fits(shape, rotation, x, boardY + 1)){ boardY++; }
+			if(y + BlockRotations.MIN_Y[shape][rotation] < 0){
+				// Topped out; start again from an empty board
+				board = new Board(width, height);
+				persistent = new PersistentBoard(width, height);
+				continue;
+			}
+			assert y == boardY : "Persistent board dropped a block to row " + y + " rather than " + boardY + ".";
+			assert persistent.fits(shape, rotation, x, y) && !persistent.fits(shape, rotation, x, y + 1) : "Persistent board dropped a block to where it doesn't rest.";
+
+			board.place(shape, rotation, x, y);
+			int cleared = board.clearFullRows();
+			PersistentBoard full = persistent.place(shape, rotation, x, y);
+			persistent = full.clearFullRows();
+			assert persistent.getStackTop() - full.getStackTop() == cleared : "Persistent board cleared a different amount of rows.";
+			assert persistent.checksum() == board.checksum() && persistent.getHash() == board.getHash() : "Persistent board had different tiles after a placement.";
+			assert persistent.getStackTop() == board.getStackTop() : "Persistent board had a different stack top.";
+		}
+
+		// Every earlier board should still be as it was, and a Board should be able to go back to any of them
+		for(int i = 0; i < history.length; i++){
+			assert history[i].checksum() == checksums[i] : "Persistent board " + i + " was changed by a later placement.";
+		}
+		for(int i = history.length-1; i >= 0; i -= 7){
+			board.copyFrom(history[i]);
+			assert board.checksum() == checksums[i] && board.getHash() == history[i].getHash() : "Board did not roll back to persistent board " + i + ".";
+			assert new PersistentBoard(board).checksum() == checksums[i] : "Persistent board made from a Board had different tiles.";
+		}
+
+		// A block placed in the air, above the stack rather than on it, should leave empty rows between them
+		board = new Board(width, height);
+		persistent = new PersistentBoard(width, height);
+		int bottomY = persistent.getDropY(0, 0, 4);
+		board.place(0, 0, 4, bottomY);
+		persistent = persistent.place(0, 0, 4, bottomY);
+		board.place(0, 0, 4, 5);
+		persistent = persistent.place(0, 0, 4, 5);
+		for(int y = 0; y < height; y++){
+			assert persistent.getRow(y) == board.getRow(y) : "Persistent board had a different row " + y + " after placing a block in the air.";
+		}
+		assert persistent.checksum() == board.checksum() && persistent.getHash() == board.getHash() : "Persistent board had different tiles after placing a block in the air.";
+		assert persistent.getStackTop() == board.getStackTop() : "Persistent board had a different stack top after placing a block in the air.";
+		long airChecksum = board.checksum();
+		board = new Board(width, height);
+		board.copyFrom(persistent);
+		assert board.checksum() == airChecksum : "Board did not copy a persistent board with a block in the air.";
+	}
+
+	/**
+	 * Tests games and boards of sizes other than the window's, including very tall ones
+	 */
+	public static void testBoardSizes(){
+		int[][] badSizes = { { Game.MIN_HORIZONTAL_TILES-1, 20 }, { Board.MAX_WIDTH+1, 20 }, { 10, Game.MIN_VERTICAL_TILES-1 } };
+		for(int i = 0; i < badSizes.length; i++){
+			try{
+				new Game(1, 1, 1, badSizes[i][0], badSizes[i][1]);
+				assert false : "Game was made with a " + badSizes[i][0] + "x" + badSizes[i][1] + " area.";
+			}
+			catch(IllegalArgumentException e){
+				// Expected
+			}
+		}
+
+		// A very tall board should only store the rows from the top of the stack down, but behave as if it stored them all
+		Board board = new Board(Board.MAX_WIDTH, 50000);
+		SeededRandom random = new SeededRandom(3);
+		for(int y = 49999; y >= 49800; y--){
+			// Leave a gap in most rows, and fill every tenth one
+			int gap = y % 10 == 0 ? -1 : random.nextInt(Board.MAX_WIDTH);
+			for(int x = 0; x < Board.MAX_WIDTH; x++){
+				if(x != gap){ board.setTileValue(x, y, 1 + random.nextInt(7)); }
+			}
+		}
+		board.setTileValue(7, 100, 3);
+		assert board.getStackTop() == 100 && board.getColumnTop(7) == 100 && board.getTileValue(7, 100) == 3 : "Tall board lost a tile high above the stack.";
+		assert board.getRow(99) == 0 && !board.isOccupied(7, 0) : "Tall board had tiles above the stack.";
+		board.setTileValue(7, 100, 0);
+		assert board.getStackTop() == 49800 : "Tall board did not find the top of the stack again.";
+		long checksum = 0xcbf29ce484222325L;
+		for(int y = 0; y < board.getHeight(); y++){
+			for(int x = 0; x < board.getWidth(); x++){
+				checksum = (checksum ^ board.getTileValue(x, y)) * 0x100000001b3L;
+			}
+		}
+		assert board.checksum() == checksum : "Tall board checksum did not include every tile.";
+
+		Board copy = new Board(Board.MAX_WIDTH, 50000);
+		copy.copyFrom(board);
+		assert copy.checksum() == board.checksum() && copy.getHash() == board.getHash() : "Tall board was not copied.";
+		assert copy.clearFullRows() == 20 : "Tall board did not clear its full rows.";
+		assert copy.getStackTop() == 49820 && copy.getRowCount(49999) == Board.MAX_WIDTH-1 : "Tall board did not drop its rows down after clearing.";
+		assert new PersistentBoard(board).clearFullRows().checksum() == copy.checksum() : "Tall board cleared different rows from a persistent board.";
+
+		// Games of other sizes should make their blocks in the middle, and be able to be snapshotted and replayed
+		Game game = new Game(1, 1, 17, 40, 20000);
+		game.step();
+		assert game.getWidth() == 40 && game.getHeight() == 20000 : "Game area was not the given size.";
+		Block block = game.getCurrentBlock();
+		assert block.getOriginX() == Game.BLOCK_ORIGIN_X_POSITIONS[block.getBlockType()-1] + 20 : "Block was not made in the middle of a wide game.";
+		try{
+			java.io.File file = java.io.File.createTempFile("game", ".replay");
+			Game small = new Game(1, 1, 41, 6, 10);
+			ReplayRecorder recorder = new ReplayRecorder(small, file.getPath());
+			SeededRandom actions = new SeededRandom(2);
+			while(!small.isOver()){
+				small.step();
+				small.apply(Game.MOVE_ACTIONS[actions.nextInt(Game.MOVE_ACTIONS.length)]);
+			}
+			recorder.close();
+			Replay replay = new Replay(file.getPath());
+			assert replay.getWidth() == 6 && replay.getHeight() == 10 : "Replay did not record the size of the game area.";
+			replay.play();
+			assert replay.isVerified() : "Replayed small game did not end the same way as the recorded game.";
+			file.delete();
+		}
+		catch(java.io.IOException e){
+			throw new AssertionError("Could not use replay file: " + e);
+		}
+		java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(game.getMaxSnapshotSize());
+		game.writeSnapshot(buffer);
+		buffer.flip();
+		try{
+			new Game(1, 1, 17).readSnapshot(buffer);
+			assert false : "Snapshot of a tall game was restored into a window sized game.";
+		}
+		catch(IllegalArgumentException e){
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests that the ghost of the falling block is where it would land, and that hard dropping places it there
+	 */
+	public static void testHardDrop(){
+		Game game = new Game(1, 1, 61);
+		Board board = game.getBoard();
+		SeededRandom actions = new SeededRandom(4);
+		int drops = 0;
+		while(drops < 300){
+			// Random actions top out quickly, so play as many games as it takes
+			if(game.isOver()){
+				game = new Game(1, 1, game.getSeed() + 1);
+				board = game.getBoard();
+			}
+			game.step();
+			Block block = game.getCurrentBlock();
+			if(block == null){ continue; }
+			game.apply(Game.MOVE_ACTIONS[actions.nextInt(Game.MOVE_ACTIONS.length)]);
+			int shape = block.getBlockType()-1;
+			int distance = 0;
+			while(board.fits(shape, block.getRotation(), block.getOriginX(), block.getOriginY() + distance + 1)){ distance++; }
+			assert game.getDropDistance() == distance : "Ghost block was " + game.getDropDistance() + " rows down rather than " + distance + ".";
+
+			if(actions.nextInt(4) == 0){
+				int blocks = game.getBlockCount();
+				int landedX = block.getOriginX();
+				int landedY = block.getOriginY() + distance;
+				int rotation = block.getRotation();
+				int lines = game.getLinesCleared();
+				game.apply(Game.ACTION_HARD_DROP);
+				drops++;
+				assert game.isOver() || game.getCurrentBlock() == null : "Hard dropped block was still falling.";
+				if(!game.isOver() && game.getLinesCleared() == lines){
+					for(int i = 0; i < BlockRotations.X_OFFSETS[shape][rotation].length; i++){
+						assert board.getTileValue(landedX + BlockRotations.X_OFFSETS[shape][rotation][i], landedY + BlockRotations.Y_OFFSETS[shape][rotation][i]) == shape+1 : "Hard dropped block was not placed where its ghost was.";
+					}
+				}
+				game.step();
+				assert game.isOver() || game.getBlockCount() == blocks + 1 : "No new block was made after a hard drop.";
+			}
+		}
+
+		// A block under an overhang can't be dropped by the column tops alone
+		Board overhang = new Board(Game.HORIZONTAL_TILES, Game.VERTICAL_TILES);
+		int bottom = Game.VERTICAL_TILES-1;
+		for(int x = 0; x < 6; x++){
+			overhang.setTileValue(x, bottom - 4, 1);
+		}
+		// A horizontal I block (shape 0, rotation 0) with its origin at the left, just under the overhang
+		assert overhang.getDropY(0, 0, 1, bottom - 3) == bottom : "Block under an overhang did not drop to the bottom.";
+		assert overhang.getDropY(0, 0, 1, 0) == bottom - 5 : "Block above an overhang did not land on it.";
+		assert overhang.getDropY(0, 0, 7, 0) == bottom : "Block beside an overhang did not drop to the bottom.";
+	}
 }
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ * A fixed size cache of board scores, keyed by board hash (see Board.getHash), which any number of
+ * searches on any number of threads can share; the same board is often reached by placing the same
+ * blocks in a different order, and it only needs to be scored once.
+ *
+ * Entries are kept in buckets of two in one array of longs, so the table never grows or allocates.
+ * The first entry of a bucket is only replaced by an entry at least as deep (that is, one which
+ * took at least as many blocks to reach), and the second is always replaced, so boards which were
+ * expensive to reach stay in the table while it still takes in new ones.
+ *
+ * The table doesn't lock. Each entry stores its key XORed with its data, so an entry which was read
+ * while another thread was writing it doesn't match its key, and is treated as missing.
+ * Scores depend on the weights they were worked out with, so a table should only be shared by
+ * searches with the same weights.
+ *
+ * @author Robert Campbell
+ */
+public class TranspositionTable {
+	// Each entry is its check (the key XORed with the rest), its score and its lines and depth
+	private static final int ENTRY_LONGS = 3;
+	private static final int BUCKET_LONGS = ENTRY_LONGS * 2;
+	private static final int BUCKET_BYTES = BUCKET_LONGS * 8;
+
+	private long[] entries;
+	private int bucketMask;
+
+	/**
+	 * Where a lookup puts the board it found, so that it doesn't have to make an object;
+	 * each thread should keep its own
+	 */
+	public static class Probe {
+		private double score;
+		private int lines;
+
+		/**
+		 * Returns the score of the board found by the last lookup
+		 */
+		public double getScore(){
+			return score;
+		}
+
+		/**
+		 * Returns the lines cleared by the placement which left the board found by the last lookup
+		 */
+		public int getLines(){
+			return lines;
+		}
+	}
+
+	/**
+	 * Constructor; creates an empty table taking up about the given amount of memory (rounded down to a power of 2 buckets)
+	 */
+	public TranspositionTable(long bytes){
+		long buckets = Long.highestOneBit(Math.max(bytes / BUCKET_BYTES, 1));
+		// Arrays are indexed by int
+		buckets = Math.min(buckets, Integer.highestOneBit(Integer.MAX_VALUE / BUCKET_LONGS));
+		entries = new long[(int)buckets * BUCKET_LONGS];
+		bucketMask = (int)buckets - 1;
+	}
+
+	/**
+	 * Returns the amount of boards the table can hold
+	 */
+	public int getCapacity(){
+		return (bucketMask + 1) * 2;
+	}
+
+	/**
+	 * Looks for the given board; if it is found, its score and lines are put in the given probe
+	 * @return Whether the board was found
+	 */
+	public boolean find(long key, Probe probe){
+		int bucket = getBucket(key);
+		for(int entry = bucket; entry < bucket + BUCKET_LONGS; entry += ENTRY_LONGS){
+			long scoreBits = entries[entry+1];
+			long meta = entries[entry+2];
+			// An empty entry has no depth, as depths are stored one higher
+			if(meta != 0 && (entries[entry] ^ scoreBits ^ meta) == key){
+				probe.score = Double.longBitsToDouble(scoreBits);
+				probe.lines = (int)(meta >>> 32);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stores the score of the given board, and the lines cleared by the placement which left it
+	 * @param depth How many blocks were placed to reach the board; deeper boards are kept in preference to others
+	 */
+	public void store(long key, int depth, double score, int lines){
+		int bucket = getBucket(key);
+		long scoreBits = Double.doubleToRawLongBits(score);
+		long meta = ((long)lines << 32) | ((depth + 1) & 0xffffffffL);
+		int entry = bucket;
+		long firstMeta = entries[bucket+2];
+		// The first entry is only replaced by a board at least as deep as it, or by the same board
+		boolean isSameBoard = (entries[bucket] ^ entries[bucket+1] ^ firstMeta) == key;
+		if(firstMeta != 0 && !isSameBoard && (int)firstMeta > depth + 1){
+			entry = bucket + ENTRY_LONGS;
+		}
+		entries[entry+1] = scoreBits;
+		entries[entry+2] = meta;
+		entries[entry] = key ^ scoreBits ^ meta;
+	}
+
+	/**
+	 * Empties the table
+	 */
+	public void clear(){
+		Arrays.fill(entries, 0);
+	}
+
+	/**
+	 * Returns the position in the array of the bucket which the given key is kept in
+	 */
+	private int getBucket(long key){
+		// The low bits of the key are mixed the most, but fold the high ones in anyway
+		return ((int)(key ^ (key >>> 32)) & bucketMask) * BUCKET_LONGS;
+	}
+}
@@ -0,0 +1,22 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork-join pool shared by everything in this process which splits its work over every core
+ * (e.g. BatchSimulator and BeamSearch), so that they don't each start a thread for every core.
+ * Its threads don't stop the program from exiting.
+ *
+ * @author Robert Campbell
+ */
+public class WorkerPool {
+	private static ForkJoinPool instance;
+
+	/**
+	 * Returns the shared pool, creating it the first time this is called
+	 */
+	public static synchronized ForkJoinPool getInstance(){
+		if(instance == null){
+			instance = new ForkJoinPool();
+		}
+		return instance;
+	}
+}